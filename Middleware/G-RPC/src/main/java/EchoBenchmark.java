@@ -0,0 +1,280 @@
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import echo.ServerResponse;
+import echo.ClientRequest;
+import echo.EchoGrpc;
+
+/**
+ * Benchmark client for the `EchoServer`. It opens a number of channels and
+ * runs a number of concurrent calls on each, so channels x streams calls are
+ * outstanding at any time. Every call slot works in a closed loop: the next
+ * message is sent as soon as the echo of the previous one arrives.
+ * In `unary` mode each message is a separate parrot call, in `stream` mode
+ * each slot keeps one parrotBidiStream open and sends its messages on it.
+ * After a warm up the throughput (QPS) and the latency percentiles are
+ * reported. The target is either host:port of a running server or
+ * `inprocess`, which starts an EchoImpl inside the benchmark and uses the
+ * in-process transport, so only the gRPC stack itself is measured.
+ */
+public class EchoBenchmark {
+  private final String request;
+  private final long warmupEnd;
+  private final long stopAt;
+
+  EchoBenchmark(int size, int warmupSeconds, int seconds) {
+    char[] payload = new char[size];
+    Arrays.fill(payload, 'x');
+    request = new String(payload);
+    warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    stopAt = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+  }
+
+  /**
+   * One closed loop of calls, latencies are kept per slot so recording
+   * needs no locking.
+   */
+  abstract class Slot implements StreamObserver<ServerResponse> {
+    final EchoGrpc.EchoStub stub;
+    final ClientRequest message;
+    final CountDownLatch done;
+    long[] latencies = new long[1024];
+    int count = 0;
+    int errors = 0;
+    long sentAt;
+
+    Slot(EchoGrpc.EchoStub stub, CountDownLatch done) {
+      this.stub = stub;
+      this.done = done;
+      message = ClientRequest.newBuilder().setMessage(request).build();
+    }
+
+    /** Record the latency of the message sent last, if past the warm up. */
+    void record() {
+      long now = System.nanoTime();
+      if (sentAt >= warmupEnd && now <= stopAt) {
+        if (count == latencies.length) {
+          latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = now - sentAt;
+      }
+    }
+
+    boolean timeLeft() {
+      return System.nanoTime() < stopAt;
+    }
+
+    abstract void start();
+
+    @Override
+    public void onError(Throwable t) {
+      errors++;
+      done.countDown();
+    }
+  }
+
+  class UnarySlot extends Slot {
+    UnarySlot(EchoGrpc.EchoStub stub, CountDownLatch done) {
+      super(stub, done);
+    }
+
+    void start() {
+      sentAt = System.nanoTime();
+      stub.parrot(message, this);
+    }
+
+    @Override
+    public void onNext(ServerResponse response) {
+    }
+
+    @Override
+    public void onCompleted() {
+      record();
+      if (timeLeft()) {
+        start();
+      } else {
+        done.countDown();
+      }
+    }
+  }
+
+  class StreamSlot extends Slot {
+    private StreamObserver<ClientRequest> requests;
+
+    StreamSlot(EchoGrpc.EchoStub stub, CountDownLatch done) {
+      super(stub, done);
+    }
+
+    void start() {
+      requests = stub.parrotBidiStream(this);
+      sentAt = System.nanoTime();
+      requests.onNext(message);
+    }
+
+    @Override
+    public void onNext(ServerResponse response) {
+      record();
+      if (timeLeft()) {
+        sentAt = System.nanoTime();
+        requests.onNext(message);
+      } else {
+        requests.onCompleted();
+      }
+    }
+
+    @Override
+    public void onCompleted() {
+      done.countDown();
+    }
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  static String micros(long nanos) {
+    return String.format("%.1f", nanos / 1000.0);
+  }
+
+  /**
+   * The outcome of one run, latencies sorted in nanoseconds.
+   */
+  static class Result {
+    final int calls;
+    final int errors;
+    final int seconds;
+    final long[] latencies;
+
+    Result(int calls, int errors, int seconds, long[] latencies) {
+      this.calls = calls;
+      this.errors = errors;
+      this.seconds = seconds;
+      this.latencies = latencies;
+    }
+
+    double qps() {
+      return calls / (double) seconds;
+    }
+
+    long percentile(double p) {
+      return EchoBenchmark.percentile(latencies, p);
+    }
+  }
+
+  /**
+   * Runs streams closed loop call slots on each of the channels.
+   */
+  static Result run(List<ManagedChannel> channelList, int streams, int size, String mode,
+                    int warmup, int seconds) throws InterruptedException {
+    EchoBenchmark benchmark = new EchoBenchmark(size, warmup, seconds);
+    CountDownLatch done = new CountDownLatch(channelList.size() * streams);
+    List<Slot> slots = new ArrayList<Slot>();
+    for (ManagedChannel channel : channelList) {
+      EchoGrpc.EchoStub stub = EchoGrpc.newStub(channel);
+      for (int s = 0; s < streams; s++) {
+        slots.add(mode.equals("stream")
+            ? benchmark.new StreamSlot(stub, done)
+            : benchmark.new UnarySlot(stub, done));
+      }
+    }
+    for (Slot slot : slots) {
+      slot.start();
+    }
+    done.await();
+
+    int total = 0;
+    int errors = 0;
+    for (Slot slot : slots) {
+      total += slot.count;
+      errors += slot.errors;
+    }
+    long[] all = new long[total];
+    int at = 0;
+    for (Slot slot : slots) {
+      System.arraycopy(slot.latencies, 0, all, at, slot.count);
+      at += slot.count;
+    }
+    Arrays.sort(all);
+    return new Result(total, errors, seconds, all);
+  }
+
+  /**
+   * Main runs the benchmark from the command line.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 8) {
+      System.out.println("Expected arguments: <host(String)|inprocess> <port(int)> <channels(int)>"
+          + " <streams(int)> <size(int)> <mode(unary|stream)> <warmup(int)> <seconds(int)>");
+      System.exit(1);
+    }
+    String host = args[0];
+    int port = 0;
+    int channels = 0;
+    int streams = 0;
+    int size = 0;
+    String mode = args[5];
+    int warmup = 0;
+    int seconds = 0;
+    try {
+      port = Integer.parseInt(args[1]);
+      channels = Integer.parseInt(args[2]);
+      streams = Integer.parseInt(args[3]);
+      size = Integer.parseInt(args[4]);
+      warmup = Integer.parseInt(args[6]);
+      seconds = Integer.parseInt(args[7]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("[Port], [channels], [streams], [size], [warmup] and [seconds] must be integers");
+      System.exit(2);
+    }
+
+    Server server = null;
+    List<ManagedChannel> channelList = new ArrayList<ManagedChannel>();
+    boolean inProcess = host.equals("inprocess");
+    if (inProcess) {
+      server = InProcessServerBuilder.forName("echo-benchmark")
+          .addService(new EchoImpl())
+          .build()
+          .start();
+    }
+    for (int c = 0; c < channels; c++) {
+      if (inProcess) {
+        channelList.add(InProcessChannelBuilder.forName("echo-benchmark").build());
+      } else {
+        channelList.add(ManagedChannelBuilder.forTarget(host + ":" + port)
+            .usePlaintext()
+            .build());
+      }
+    }
+
+    Result result = run(channelList, streams, size, mode, warmup, seconds);
+
+    System.out.println("target " + (inProcess ? "inprocess" : host + ":" + port) + ", mode " + mode
+        + ", " + channels + " channels x " + streams + " streams, " + size + " byte messages");
+    System.out.println(String.format("QPS: %.0f  (%d calls in %d s, %d errors)",
+        result.qps(), result.calls, seconds, result.errors));
+    System.out.println("latency (us): p50 " + micros(result.percentile(50))
+        + "  p90 " + micros(result.percentile(90))
+        + "  p99 " + micros(result.percentile(99))
+        + "  p99.9 " + micros(result.percentile(99.9))
+        + "  max " + micros(result.percentile(100)));
+
+    for (ManagedChannel channel : channelList) {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    if (server != null) {
+      server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -1,16 +1,42 @@
 import io.grpc.Channel;
 import io.grpc.ManagedChannel;
+import io.grpc.LoadBalancerRegistry;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.NameResolverRegistry;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import echo.ServerResponse;
 import echo.ClientRequest;
 import echo.EchoGrpc;
 
 /**
  * Client that requests `parrot` method from the `EchoServer`.
+ * Besides the single blocking call it can send many messages over the one
+ * channel: with the async stub keeping up to maxInFlight unary calls
+ * outstanding at once, or with one of the streaming variants of parrot.
+ * The host can also be a comma separated list of backends (`host` or
+ * `host:port`), the client then spreads the calls over all of them with the
+ * given load balancing policy: `round_robin`, `least_outstanding` (fewest
+ * calls in progress) or `pick_first`. With round_robin and least_outstanding
+ * backends are only used while their gRPC health service reports the Echo
+ * service as SERVING; pick_first ignores the health checks and stays on the
+ * first backend it can connect to.
  */
 public class EchoClient {
+  private static final int maxInFlight = 100;
   private final EchoGrpc.EchoBlockingStub blockingStub;
+  private final EchoGrpc.EchoStub asyncStub;
 
   /** Construct client for accessing server using the existing channel. */
   public EchoClient(Channel channel) {
@@ -19,6 +45,7 @@ public class EchoClient {
 
         // Passing Channels to code makes code easier to test and makes it easier to reuse Channels.
     blockingStub = EchoGrpc.newBlockingStub(channel);
+    asyncStub = EchoGrpc.newStub(channel);
   }
 
   public void askServerToParrot(String message) {
@@ -33,34 +60,244 @@ public class EchoClient {
     System.out.println("Received from server: " + response.getMessage());
   }
 
+  /**
+   * Sends count unary calls with the async stub. Up to maxInFlight calls are
+   * outstanding at the same time, a new call is started whenever one completes.
+   */
+  public void askServerToParrotAsync(String message, int count) throws InterruptedException {
+    final Semaphore inFlight = new Semaphore(maxInFlight);
+    final CountDownLatch done = new CountDownLatch(count);
+    final AtomicInteger failed = new AtomicInteger();
+    ClientRequest request = ClientRequest.newBuilder().setMessage(message).build();
+    for (int i = 0; i < count; i++) {
+      inFlight.acquire();
+      asyncStub.parrot(request, new StreamObserver<ServerResponse>() {
+        @Override
+        public void onNext(ServerResponse response) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          failed.incrementAndGet();
+          inFlight.release();
+          done.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+          inFlight.release();
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    System.out.println("Completed " + (count - failed.get()) + " of " + count + " async calls");
+  }
+
+  /**
+   * Sends request count times on a client stream, only while the transport
+   * is ready to take more, then completes the stream. Without this every
+   * message would be queued in the client at once.
+   */
+  private static void sendWhenReady(final ClientCallStreamObserver<ClientRequest> requests,
+      final ClientRequest request, final int count) {
+    // called whenever the transport can take more messages
+    requests.setOnReadyHandler(new Runnable() {
+      private int sent = 0;
+      private boolean completed = false;
+
+      @Override
+      public void run() {
+        while (sent < count && requests.isReady()) {
+          sent++;
+          requests.onNext(request);
+        }
+        if (sent == count && !completed) {
+          completed = true;
+          requests.onCompleted();
+        }
+      }
+    });
+  }
+
+  /**
+   * Streams count messages to the server and waits for its single answer.
+   */
+  public void parrotClientStream(String message, int count) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final ClientRequest request = ClientRequest.newBuilder().setMessage(message).build();
+    asyncStub.parrotClientStream(
+        new ClientResponseObserver<ClientRequest, ServerResponse>() {
+          @Override
+          public void beforeStart(ClientCallStreamObserver<ClientRequest> requests) {
+            sendWhenReady(requests, request, count);
+          }
+
+          @Override
+          public void onNext(ServerResponse response) {
+            System.out.println("Server received " + response.getCount()
+                + " messages, last: " + response.getMessage());
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            System.err.println("RPC failed: " + t.getMessage());
+            done.countDown();
+          }
+
+          @Override
+          public void onCompleted() {
+            done.countDown();
+          }
+        });
+    done.await();
+  }
+
+  /**
+   * Asks the server to stream the message back count times.
+   */
+  public void parrotServerStream(String message, int count) {
+    ClientRequest request = ClientRequest.newBuilder()
+        .setMessage(message).setRepeat(count).build();
+    int received = 0;
+    try {
+      Iterator<ServerResponse> responses = blockingStub.parrotServerStream(request);
+      while (responses.hasNext()) {
+        responses.next();
+        received++;
+      }
+    } catch (Exception e) {
+      System.err.println("RPC failed: " + e.getMessage());
+    }
+    System.out.println("Received " + received + " messages from server stream");
+  }
+
+  /**
+   * Streams count messages to the server while the echoes stream back.
+   */
+  public void parrotBidiStream(String message, int count) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger received = new AtomicInteger();
+    final ClientRequest request = ClientRequest.newBuilder().setMessage(message).build();
+    asyncStub.parrotBidiStream(
+        new ClientResponseObserver<ClientRequest, ServerResponse>() {
+          @Override
+          public void beforeStart(ClientCallStreamObserver<ClientRequest> requests) {
+            sendWhenReady(requests, request, count);
+          }
+
+          @Override
+          public void onNext(ServerResponse response) {
+            received.incrementAndGet();
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            System.err.println("RPC failed: " + t.getMessage());
+            done.countDown();
+          }
+
+          @Override
+          public void onCompleted() {
+            done.countDown();
+          }
+        });
+    done.await();
+    System.out.println("Received " + received.get() + " echoes on bidirectional stream");
+  }
+
+  /**
+   * Service config for a channel to several backends: the load balancing
+   * policy and the service the health checks ask about. pick_first does not
+   * use healthCheckConfig.
+   */
+  private static Map<String, Object> serviceConfig(String policy) {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put("loadBalancingConfig", Collections.singletonList(
+        Collections.singletonMap(policy, new HashMap<String, Object>())));
+    config.put("healthCheckConfig", Collections.singletonMap("serviceName", EchoGrpc.SERVICE_NAME));
+    return config;
+  }
+
   public static void main(String[] args) throws Exception {
-    if (args.length != 3) {
-      System.out.println("Expected arguments: <host(String)> <port(int)> <message(String)>");
+    if (args.length < 3 || args.length > 6) {
+      System.out.println("Expected arguments: <host(String)[,host2[:port2],...]> <port(int)> <message(String)>"
+          + " [mode(unary|async|client|server|bidi)] [count(int)]"
+          + " [policy(round_robin|least_outstanding|pick_first)]");
       System.exit(1);
     }
     int port = 9099;
     String host = args[0];
     String message = args[2];
+    String mode = (args.length > 3) ? args[3] : "unary";
+    String policy = (args.length > 5) ? args[5] : "round_robin";
+    int count = 1;
     try {
       port = Integer.parseInt(args[1]);
     } catch (NumberFormatException nfe) {
       System.out.println("[Port] must be an integer");
       System.exit(2);
     }
+    try {
+      if (args.length > 4) {
+        count = Integer.parseInt(args[4]);
+      }
+    } catch (NumberFormatException nfe) {
+      System.out.println("[Count] must be an integer");
+      System.exit(2);
+    }
     
 
     // Create a communication channel to the server, known as a Channel. Channels are thread-safe
     // and reusable. It is common to create channels at the beginning of your application and reuse
     // them until the application shuts down.
     String target = host + ":" + port;
-    ManagedChannel channel = ManagedChannelBuilder.forTarget(target)
+    ManagedChannelBuilder<?> builder;
+    if (host.contains(",")) {
+      // several backends: resolve the static list and balance the calls over them
+      NameResolverRegistry.getDefaultRegistry().register(new StaticNameResolverProvider());
+      LoadBalancerRegistry.getDefaultRegistry().register(new LeastOutstandingLoadBalancerProvider());
+      List<String> backends = new ArrayList<String>();
+      for (String backend : host.split(",")) {
+        backends.add(backend.contains(":") ? backend : backend + ":" + port);
+      }
+      target = StaticNameResolverProvider.target(backends);
+      builder = ManagedChannelBuilder.forTarget(target)
+          .defaultServiceConfig(serviceConfig(policy));
+      System.out.println("Balancing over " + backends + " with " + policy);
+    } else {
+      builder = ManagedChannelBuilder.forTarget(target);
+    }
+    ManagedChannel channel = builder
         // Channels are secure by default (via SSL/TLS). For the example we disable TLS to avoid
         // needing certificates.
         .usePlaintext()
         .build();
     try {
       EchoClient client = new EchoClient(channel);
-      client.askServerToParrot(message);
+      long start = System.nanoTime();
+      switch (mode) {
+        case "async":
+          client.askServerToParrotAsync(message, count);
+          break;
+        case "client":
+          client.parrotClientStream(message, count);
+          break;
+        case "server":
+          client.parrotServerStream(message, count);
+          break;
+        case "bidi":
+          client.parrotBidiStream(message, count);
+          break;
+        default:
+          for (int i = 0; i < count; i++) {
+            client.askServerToParrot(message);
+          }
+      }
+      if (count > 1) {
+        System.out.println(mode + ": " + count + " messages in "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+      }
     } finally {
       // ManagedChannels use resources like threads and TCP connections. To prevent leaking these
       // resources the channel should be shut down when it will no longer be used. If it may be used
@@ -1,18 +1,157 @@
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import echo.ServerResponse;
 import echo.ClientRequest;
 import echo.EchoGrpc;
+
+/**
+ * Nothing is printed while handling a call, printing to stdout is synchronized
+ * and becomes the bottleneck with many clients. Received messages are counted
+ * instead and EchoServer reports the count periodically.
+ * The streaming methods follow gRPC's flow control: the server only sends
+ * while the client can take more, and the bidirectional stream only requests
+ * the next message once its echo could be sent.
+ */
 class EchoImpl extends EchoGrpc.EchoImplBase {
+    private final LongAdder received = new LongAdder();
+    private volatile String lastMessage = "";
+
+    /** Number of messages received from clients so far. */
+    long received() {
+        return received.sum();
+    }
+
+    String lastMessage() {
+        return lastMessage;
+    }
 
     @Override
     public void parrot(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
-        System.out.println("Received from client: " + req.getMessage());
+        received.increment();
+        lastMessage = req.getMessage();
         ServerResponse response = ServerResponse.newBuilder().setMessage(req.getMessage()).build();
         responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
-}
\ No newline at end of file
+
+    /**
+     * Receives a stream of messages and answers once when the client is done.
+     */
+    @Override
+    public StreamObserver<ClientRequest> parrotClientStream(StreamObserver<ServerResponse> responseObserver) {
+        return new StreamObserver<ClientRequest>() {
+            private int count = 0;
+            private String last = "";
+
+            @Override
+            public void onNext(ClientRequest req) {
+                received.increment();
+                count++;
+                last = req.getMessage();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                System.err.println("Client stream failed: " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                lastMessage = last;
+                responseObserver.onNext(ServerResponse.newBuilder()
+                    .setMessage(last).setCount(count).build());
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    @Override
+    public void parrotServerStream(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
+        received.increment();
+        lastMessage = req.getMessage();
+        final ServerCallStreamObserver<ServerResponse> call =
+            (ServerCallStreamObserver<ServerResponse>) responseObserver;
+        final int repeat = req.getRepeat();
+        if (repeat < 0) {
+            // the stream would never reach repeat and never complete
+            call.onError(Status.INVALID_ARGUMENT
+                .withDescription("repeat must not be negative: " + repeat).asRuntimeException());
+            return;
+        }
+        // called whenever the transport can take more messages
+        call.setOnReadyHandler(new Runnable() {
+            private int sent = 0;
+            private boolean completed = false;
+
+            @Override
+            public void run() {
+                while (sent < repeat && call.isReady()) {
+                    sent++;
+                    call.onNext(ServerResponse.newBuilder()
+                        .setMessage(req.getMessage()).setCount(sent).build());
+                }
+                if (sent == repeat && !completed) {
+                    completed = true;
+                    call.onCompleted();
+                }
+            }
+        });
+    }
+
+    @Override
+    public StreamObserver<ClientRequest> parrotBidiStream(StreamObserver<ServerResponse> responseObserver) {
+        final ServerCallStreamObserver<ServerResponse> call =
+            (ServerCallStreamObserver<ServerResponse>) responseObserver;
+        call.disableAutoInboundFlowControl();
+
+        // request the first message once the call is ready to send echoes
+        class OnReadyHandler implements Runnable {
+            private boolean wasReady = false;
+
+            @Override
+            public void run() {
+                if (call.isReady() && !wasReady) {
+                    wasReady = true;
+                    call.request(1);
+                }
+            }
+        }
+        final OnReadyHandler onReadyHandler = new OnReadyHandler();
+        call.setOnReadyHandler(onReadyHandler);
+
+        return new StreamObserver<ClientRequest>() {
+            private int count = 0;
+
+            @Override
+            public void onNext(ClientRequest req) {
+                received.increment();
+                lastMessage = req.getMessage();
+                count++;
+                call.onNext(ServerResponse.newBuilder()
+                    .setMessage(req.getMessage()).setCount(count).build());
+                if (call.isReady()) {
+                    call.request(1);
+                } else {
+                    // the client is not reading, wait for the next onReady
+                    onReadyHandler.wasReady = false;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                System.err.println("Bidirectional stream failed: " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                call.onCompleted();
+            }
+        };
+    }
+}
@@ -1,7 +1,14 @@
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.services.HealthStatusManager;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import echo.ServerResponse;
 import echo.ClientRequest;
@@ -9,23 +16,133 @@ import echo.EchoGrpc;
 
 /**
  * Server that manages startup/shutdown of the `EchoServer`.
+ * The executor that runs the service methods can be chosen:
+ * `default` (gRPC's cached thread pool), `fixed` (a pool of `threads` threads,
+ * 0 for one per processor),
+ * `forkjoin` (a work stealing pool of `threads` threads), `virtual` (a virtual
+ * thread per call, needs Java 21) or `direct` (calls run on the transport
+ * threads, only for handlers that never block, as EchoImpl's do).
+ * Max inbound message size, HTTP/2 flow-control window and keepalive time
+ * are passed to the Netty transport, 0 keeps gRPC's default.
+ * Messages are counted and reported every few seconds by a background
+ * thread rather than printed on the thread that handles the call.
+ * The server also offers the standard gRPC health service, clients that
+ * balance over several servers use it to skip servers that are not SERVING.
  */
 public class EchoServer {
+  private static final int reportSeconds = 5;
   private Server server;
+  private ExecutorService executor = null;
+  private ScheduledExecutorService reporter = null;
+  private final EchoImpl service = new EchoImpl();
+  private final HealthStatusManager health = new HealthStatusManager();
   int port;
+  String executorMode = "default";
+  int threads = Runtime.getRuntime().availableProcessors();
+  int maxInboundMessageSize = 0;
+  int flowControlWindow = 0;
+  int keepAliveSeconds = 0;
 
   EchoServer(int port) {
     this.port = port;
   }
 
-  private void start() throws IOException {
+  EchoServer(int port, String executorMode, int threads, int maxInboundMessageSize,
+             int flowControlWindow, int keepAliveSeconds) {
+    this.port = port;
+    this.executorMode = executorMode;
+    if (threads > 0) {
+      this.threads = threads;
+    }
+    this.maxInboundMessageSize = maxInboundMessageSize;
+    this.flowControlWindow = flowControlWindow;
+    this.keepAliveSeconds = keepAliveSeconds;
+  }
+
+  /**
+   * Virtual threads are looked up at runtime, so the example still compiles
+   * and runs with Java versions before 21.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("virtual threads need Java 21 or later");
+    }
+  }
+
+  private NettyServerBuilder configure(NettyServerBuilder builder) {
+    switch (executorMode) {
+      case "fixed":
+        executor = Executors.newFixedThreadPool(threads);
+        builder.executor(executor);
+        break;
+      case "forkjoin":
+        executor = new ForkJoinPool(threads);
+        builder.executor(executor);
+        break;
+      case "virtual":
+        executor = newVirtualThreadExecutor();
+        builder.executor(executor);
+        break;
+      case "direct":
+        builder.directExecutor();
+        break;
+      case "default":
+        break;
+      default:
+        throw new IllegalArgumentException("unknown executor: " + executorMode);
+    }
+    if (maxInboundMessageSize > 0) {
+      builder.maxInboundMessageSize(maxInboundMessageSize);
+    }
+    if (flowControlWindow > 0) {
+      builder.flowControlWindow(flowControlWindow);
+    }
+    if (keepAliveSeconds > 0) {
+      builder.keepAliveTime(keepAliveSeconds, TimeUnit.SECONDS)
+          .keepAliveTimeout(keepAliveSeconds, TimeUnit.SECONDS)
+          .permitKeepAliveTime(keepAliveSeconds, TimeUnit.SECONDS);
+    }
+    return builder;
+  }
+
+  /**
+   * Starts the server without printing anything, used by the benchmarks.
+   */
+  void startQuietly() throws IOException {
     /* The port on which the server should run */
-    server = ServerBuilder.forPort(port)
-        .addService(new EchoImpl())
+    server = configure(NettyServerBuilder.forPort(port))
+        .addService(service)
+        .addService(health.getHealthService())
         .build()
         .start();
+    health.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, ServingStatus.SERVING);
+    health.setStatus(EchoGrpc.SERVICE_NAME, ServingStatus.SERVING);
+  }
 
-    System.out.println("Server running ...");
+  private void start() throws IOException {
+    startQuietly();
+    System.out.println("Server running (executor " + executorMode + ") ...");
+    reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "echo reporter");
+      t.setDaemon(true);
+      return t;
+    });
+    reporter.scheduleAtFixedRate(new Runnable() {
+      private long reported = 0;
+
+      @Override
+      public void run() {
+        long received = service.received();
+        if (received != reported) {
+          System.out.println("Received " + (received - reported) + " messages from clients"
+              + " in the last " + reportSeconds + " s, last message: " + service.lastMessage());
+          reported = received;
+        }
+      }
+    }, reportSeconds, reportSeconds, TimeUnit.SECONDS);
     Runtime.getRuntime().addShutdownHook(new Thread() {
       @Override
       public void run() {
@@ -41,10 +158,18 @@ public class EchoServer {
     });
   }
 
-  private void stop() throws InterruptedException {
+  void stop() throws InterruptedException {
+    // tell balancing clients to stop sending new calls before shutting down
+    health.enterTerminalState();
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
+    if (executor != null) {
+      executor.shutdown();
+    }
+    if (reporter != null) {
+      reporter.shutdownNow();
+    }
   }
 
   /**
@@ -60,8 +185,9 @@ public class EchoServer {
    * Main launches the server from the command line.
    */
   public static void main(String[] args) throws IOException, InterruptedException {
-    if (args.length != 1) {
-      System.out.println("Expected arguments: <port(int)>");
+    if (args.length != 1 && args.length != 6) {
+      System.out.println("Expected arguments: <port(int)> [<executor(default|fixed|forkjoin|virtual|direct)>"
+          + " <threads(int)> <maxInboundMessageSize(int)> <flowControlWindow(int)> <keepAliveSeconds(int)>]");
       System.exit(1);
     }
     int port = 9099;
@@ -71,7 +197,17 @@ public class EchoServer {
       System.out.println("[Port] must be an integer");
       System.exit(2);
     }
-    final EchoServer server = new EchoServer(port);
+    EchoServer server = new EchoServer(port);
+    if (args.length == 6) {
+      try {
+        server = new EchoServer(port, args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+            Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+      } catch (NumberFormatException nfe) {
+        System.out.println("[Threads], [maxInboundMessageSize], [flowControlWindow] and"
+            + " [keepAliveSeconds] must be integers");
+        System.exit(2);
+      }
+    }
     server.start();
     server.blockUntilShutdown();
   }
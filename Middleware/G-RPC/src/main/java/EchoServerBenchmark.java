@@ -0,0 +1,81 @@
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the executor modes of `EchoServer`. For every mode a server is
+ * started on localhost with the given flow-control window, the same
+ * EchoBenchmark load is run against it and one line with QPS and latency
+ * percentiles is printed. Client and server share the JVM, so results are
+ * only comparable with each other, not with a remote deployment.
+ */
+public class EchoServerBenchmark {
+  private static final String[] modes = {"default", "fixed", "forkjoin", "virtual", "direct"};
+
+  /**
+   * Main runs the comparison from the command line.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 8) {
+      System.out.println("Expected arguments: <port(int)> <channels(int)> <streams(int)> <size(int)>"
+          + " <mode(unary|stream)> <flowControlWindow(int)> <warmup(int)> <seconds(int)>");
+      System.exit(1);
+    }
+    int port = 0;
+    int channels = 0;
+    int streams = 0;
+    int size = 0;
+    String mode = args[4];
+    int flowControlWindow = 0;
+    int warmup = 0;
+    int seconds = 0;
+    try {
+      port = Integer.parseInt(args[0]);
+      channels = Integer.parseInt(args[1]);
+      streams = Integer.parseInt(args[2]);
+      size = Integer.parseInt(args[3]);
+      flowControlWindow = Integer.parseInt(args[5]);
+      warmup = Integer.parseInt(args[6]);
+      seconds = Integer.parseInt(args[7]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("[Port], [channels], [streams], [size], [flowControlWindow], [warmup]"
+          + " and [seconds] must be integers");
+      System.exit(2);
+    }
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    System.out.println("mode " + mode + ", " + channels + " channels x " + streams + " streams, "
+        + size + " byte messages, " + threads + " threads, flow-control window "
+        + (flowControlWindow > 0 ? flowControlWindow : "default"));
+    System.out.println(String.format("%-10s %10s %10s %10s %10s %10s",
+        "executor", "QPS", "p50 (us)", "p90 (us)", "p99 (us)", "p99.9 (us)"));
+    for (String executor : modes) {
+      EchoServer server = new EchoServer(port, executor, threads, 0, flowControlWindow, 0);
+      try {
+        server.startQuietly();
+      } catch (IllegalArgumentException e) {
+        System.out.println(String.format("%-10s skipped, %s", executor, e.getMessage()));
+        continue;
+      }
+      List<ManagedChannel> channelList = new ArrayList<ManagedChannel>();
+      for (int c = 0; c < channels; c++) {
+        channelList.add(ManagedChannelBuilder.forTarget("localhost:" + port)
+            .usePlaintext()
+            .build());
+      }
+      EchoBenchmark.Result result = EchoBenchmark.run(channelList, streams, size, mode,
+          warmup, seconds);
+      System.out.println(String.format("%-10s %10.0f %10s %10s %10s %10s", executor, result.qps(),
+          EchoBenchmark.micros(result.percentile(50)),
+          EchoBenchmark.micros(result.percentile(90)),
+          EchoBenchmark.micros(result.percentile(99)),
+          EchoBenchmark.micros(result.percentile(99.9))));
+      for (ManagedChannel channel : channelList) {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      }
+      server.stop();
+    }
+  }
+}
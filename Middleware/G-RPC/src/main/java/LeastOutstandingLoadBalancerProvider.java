@@ -0,0 +1,230 @@
+import io.grpc.ClientStreamTracer;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.services.HealthCheckingLoadBalancerUtil;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load balancing policy `least_outstanding`: every call goes to the ready
+ * backend with the fewest calls in progress, so a slow backend gets less
+ * work than with round_robin. Calls are counted per backend with a stream
+ * tracer, from the moment the stream is created until it is closed.
+ * The policy is wrapped for client side health checking like round_robin,
+ * so a backend whose health service does not report SERVING is not picked
+ * when the service config has a healthCheckConfig.
+ */
+public class LeastOutstandingLoadBalancerProvider extends LoadBalancerProvider {
+  static final String policyName = "least_outstanding";
+
+  @Override
+  public boolean isAvailable() {
+    return true;
+  }
+
+  @Override
+  public int getPriority() {
+    return 5;
+  }
+
+  @Override
+  public String getPolicyName() {
+    return policyName;
+  }
+
+  @Override
+  public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+    return HealthCheckingLoadBalancerUtil.newHealthCheckingLoadBalancer(
+        new LoadBalancer.Factory() {
+          @Override
+          public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+            return new LeastOutstandingLoadBalancer(helper);
+          }
+        }, helper);
+  }
+
+  static class LeastOutstandingLoadBalancer extends LoadBalancer {
+    private final Helper helper;
+    private final Map<EquivalentAddressGroup, Subchannel> subchannels =
+        new HashMap<EquivalentAddressGroup, Subchannel>();
+    private final Map<Subchannel, ConnectivityStateInfo> states =
+        new HashMap<Subchannel, ConnectivityStateInfo>();
+    private final Map<Subchannel, AtomicInteger> outstanding =
+        new HashMap<Subchannel, AtomicInteger>();
+
+    LeastOutstandingLoadBalancer(Helper helper) {
+      this.helper = helper;
+    }
+
+    @Override
+    public void handleResolvedAddresses(ResolvedAddresses resolvedAddresses) {
+      Set<EquivalentAddressGroup> current = new HashSet<EquivalentAddressGroup>();
+      for (EquivalentAddressGroup group : resolvedAddresses.getAddresses()) {
+        // compare by address only, attributes may change between resolutions
+        EquivalentAddressGroup key = new EquivalentAddressGroup(group.getAddresses());
+        current.add(key);
+        if (subchannels.containsKey(key)) {
+          continue;
+        }
+        final Subchannel subchannel = helper.createSubchannel(CreateSubchannelArgs.newBuilder()
+            .setAddresses(group)
+            .build());
+        subchannels.put(key, subchannel);
+        states.put(subchannel, ConnectivityStateInfo.forNonError(ConnectivityState.IDLE));
+        outstanding.put(subchannel, new AtomicInteger());
+        subchannel.start(new SubchannelStateListener() {
+          @Override
+          public void onSubchannelState(ConnectivityStateInfo state) {
+            processStateChange(subchannel, state);
+          }
+        });
+        subchannel.requestConnection();
+      }
+      for (EquivalentAddressGroup key : new ArrayList<EquivalentAddressGroup>(subchannels.keySet())) {
+        if (!current.contains(key)) {
+          Subchannel removed = subchannels.remove(key);
+          states.remove(removed);
+          outstanding.remove(removed);
+          removed.shutdown();
+        }
+      }
+      updateBalancingState();
+    }
+
+    private void processStateChange(Subchannel subchannel, ConnectivityStateInfo state) {
+      if (!states.containsKey(subchannel)) {
+        return;
+      }
+      if (state.getState() == ConnectivityState.IDLE) {
+        subchannel.requestConnection();
+      }
+      states.put(subchannel, state);
+      updateBalancingState();
+    }
+
+    @Override
+    public void handleNameResolutionError(Status error) {
+      if (readySubchannels().isEmpty()) {
+        helper.updateBalancingState(ConnectivityState.TRANSIENT_FAILURE,
+            new FailingPicker(error));
+      }
+    }
+
+    private List<Subchannel> readySubchannels() {
+      List<Subchannel> ready = new ArrayList<Subchannel>();
+      for (Map.Entry<Subchannel, ConnectivityStateInfo> entry : states.entrySet()) {
+        if (entry.getValue().getState() == ConnectivityState.READY) {
+          ready.add(entry.getKey());
+        }
+      }
+      return ready;
+    }
+
+    private void updateBalancingState() {
+      List<Subchannel> ready = readySubchannels();
+      if (!ready.isEmpty()) {
+        List<AtomicInteger> counts = new ArrayList<AtomicInteger>();
+        for (Subchannel subchannel : ready) {
+          counts.add(outstanding.get(subchannel));
+        }
+        helper.updateBalancingState(ConnectivityState.READY, new Picker(ready, counts));
+        return;
+      }
+      Status failure = Status.UNAVAILABLE.withDescription("no ready backend");
+      for (ConnectivityStateInfo state : states.values()) {
+        if (state.getState() == ConnectivityState.CONNECTING
+            || state.getState() == ConnectivityState.IDLE) {
+          helper.updateBalancingState(ConnectivityState.CONNECTING,
+              new SubchannelPicker() {
+                @Override
+                public PickResult pickSubchannel(PickSubchannelArgs args) {
+                  return PickResult.withNoResult();
+                }
+              });
+          return;
+        }
+        if (!state.getStatus().isOk()) {
+          failure = state.getStatus();
+        }
+      }
+      helper.updateBalancingState(ConnectivityState.TRANSIENT_FAILURE, new FailingPicker(failure));
+    }
+
+    @Override
+    public void shutdown() {
+      for (Subchannel subchannel : subchannels.values()) {
+        subchannel.shutdown();
+      }
+      subchannels.clear();
+      states.clear();
+      outstanding.clear();
+    }
+  }
+
+  /**
+   * Picks the ready backend with the fewest outstanding calls. Ties are
+   * broken by starting the search at a rotating index, so equally loaded
+   * backends take turns.
+   */
+  static class Picker extends LoadBalancer.SubchannelPicker {
+    private final List<LoadBalancer.Subchannel> subchannels;
+    private final List<AtomicInteger> counts;
+    private final AtomicInteger next = new AtomicInteger();
+
+    Picker(List<LoadBalancer.Subchannel> subchannels, List<AtomicInteger> counts) {
+      this.subchannels = subchannels;
+      this.counts = counts;
+    }
+
+    @Override
+    public LoadBalancer.PickResult pickSubchannel(LoadBalancer.PickSubchannelArgs args) {
+      int size = subchannels.size();
+      int start = Math.floorMod(next.getAndIncrement(), size);
+      int best = start;
+      for (int i = 1; i < size; i++) {
+        int candidate = (start + i) % size;
+        if (counts.get(candidate).get() < counts.get(best).get()) {
+          best = candidate;
+        }
+      }
+      final AtomicInteger count = counts.get(best);
+      return LoadBalancer.PickResult.withSubchannel(subchannels.get(best),
+          new ClientStreamTracer.Factory() {
+            @Override
+            public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info,
+                                                            Metadata headers) {
+              count.incrementAndGet();
+              return new ClientStreamTracer() {
+                @Override
+                public void streamClosed(Status status) {
+                  count.decrementAndGet();
+                }
+              };
+            }
+          });
+    }
+  }
+
+  static class FailingPicker extends LoadBalancer.SubchannelPicker {
+    private final Status error;
+
+    FailingPicker(Status error) {
+      this.error = error;
+    }
+
+    @Override
+    public LoadBalancer.PickResult pickSubchannel(LoadBalancer.PickSubchannelArgs args) {
+      return LoadBalancer.PickResult.withError(error);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Name resolver for targets of the form `static:///host1:port1,host2:port2`.
+ * The backends are given on the command line, so nothing is looked up: the
+ * resolver hands the whole list to the load balancing policy of the channel,
+ * which then connects to every backend.
+ */
+public class StaticNameResolverProvider extends NameResolverProvider {
+  static final String scheme = "static";
+
+  /** Builds the target for a list of backends. */
+  static String target(List<String> backends) {
+    return scheme + ":///" + String.join(",", backends);
+  }
+
+  @Override
+  protected boolean isAvailable() {
+    return true;
+  }
+
+  @Override
+  protected int priority() {
+    return 5;
+  }
+
+  @Override
+  public String getDefaultScheme() {
+    return scheme;
+  }
+
+  @Override
+  public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+    if (!scheme.equals(targetUri.getScheme())) {
+      return null;
+    }
+    final List<EquivalentAddressGroup> addresses = new ArrayList<EquivalentAddressGroup>();
+    for (String backend : targetUri.getPath().substring(1).split(",")) {
+      int colon = backend.lastIndexOf(':');
+      addresses.add(new EquivalentAddressGroup(new InetSocketAddress(
+          backend.substring(0, colon), Integer.parseInt(backend.substring(colon + 1)))));
+    }
+    final String authority = targetUri.getPath().substring(1).split(",")[0];
+    return new NameResolver() {
+      @Override
+      public String getServiceAuthority() {
+        return authority;
+      }
+
+      @Override
+      public void start(Listener2 listener) {
+        listener.onResult(ResolutionResult.newBuilder().setAddresses(addresses).build());
+      }
+
+      @Override
+      public void shutdown() {
+      }
+    };
+  }
+}
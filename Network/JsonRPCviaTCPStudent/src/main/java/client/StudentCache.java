@@ -0,0 +1,75 @@
+package client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import server.Student;
+
+/**
+ * Purpose: bounded client side cache of students for StudentTcpProxy.
+ * Entries are evicted least recently used first. The server notifies the
+ * proxy of every change and the proxy invalidates the entry here.
+ * A result that was requested before an invalidation arrived might be
+ * older than the change, so put only stores it if no invalidation
+ * happened since the request was sent (compare version before and after).
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+class StudentCache extends Object {
+
+   private final int maxEntries;
+   private long version = 0;
+   private String[] names = null;
+   private LinkedHashMap<String,Student> students;
+
+   StudentCache(final int maxEntries) {
+      this.maxEntries = maxEntries;
+      // access order, so the eldest entry is the least recently used one
+      students = new LinkedHashMap<String,Student>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String,Student> eldest) {
+               return size() > StudentCache.this.maxEntries;
+            }
+         };
+   }
+
+   /**
+    * @return the current version, to be passed to put after the request
+    */
+   synchronized long version() {
+      return version;
+   }
+
+   synchronized Student get(String aName) {
+      return students.get(aName);
+   }
+
+   synchronized void put(String aName, Student stud, long versionSeen) {
+      if (version == versionSeen) {
+         students.put(aName, stud);
+      }
+   }
+
+   synchronized String[] getNames() {
+      return names;
+   }
+
+   synchronized void putNames(String[] names, long versionSeen) {
+      if (version == versionSeen) {
+         this.names = names;
+      }
+   }
+
+   /**
+    * The student with this name was added, changed or removed.
+    */
+   synchronized void invalidate(String aName) {
+      version++;
+      students.remove(aName);
+      names = null;
+   }
+
+   synchronized void clear() {
+      version++;
+      students.clear();
+      names = null;
+   }
+}
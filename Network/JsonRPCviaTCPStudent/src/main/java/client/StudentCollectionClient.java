@@ -47,7 +47,7 @@ public class StudentCollectionClient extends Object {
          // get input
          BufferedReader stdin = new BufferedReader(
             new InputStreamReader(System.in));
-         System.out.print("Enter end or {add|get|getNameById|getNames|remove} followed by args>");
+         System.out.print("Enter end or {add|get|getNameById|getNames|getNamesByCourse|remove} followed by args>");
          String inStr = stdin.readLine();
          StringTokenizer st = new StringTokenizer(inStr);
          String opn = st.nextToken();
@@ -71,8 +71,14 @@ public class StudentCollectionClient extends Object {
                Student result = sc.get(name);
                System.out.println("Got "+result.toString());
             }else if (opn.equalsIgnoreCase("getNames")) {
-               String[] result = sc.getNames();
+               // names are printed as they arrive rather than all at the end
                System.out.print("The collection has entries for: ");
+               sc.streamNames(aName -> System.out.print(aName+", "));
+               System.out.println();
+            }else if (opn.equalsIgnoreCase("getNamesByCourse")) {
+               String course = st.nextToken();
+               String[] result = sc.getNamesByCourse(course);
+               System.out.print(course+" is taken by: ");
                for (int i = 0; i < result.length; i++){
                   System.out.print(result[i]+", ");
                }
@@ -89,7 +95,7 @@ public class StudentCollectionClient extends Object {
                String result = sc.getNameById(idNo);
                System.out.println(result+" has id number "+idNo);
             }
-            System.out.print("Enter end or {add|get|getNameById|getNames|remove} followed by args>");
+            System.out.print("Enter end or {add|get|getNameById|getNames|getNamesByCourse|remove} followed by args>");
             inStr = stdin.readLine();
             st = new StringTokenizer(inStr);
             opn = st.nextToken();
@@ -0,0 +1,185 @@
+package client;
+
+import server.Student;
+import server.StudentCollection;
+import server.StudentCollectionProtoSkeleton;
+import server.StudentCollectionTCPJsonRPCServer;
+import java.net.*;
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import buffers.StudentProtos.Request;
+import buffers.StudentProtos.Response;
+import buffers.StudentProtos.Value;
+
+/**
+ * Purpose: client proxy for the student collection that uses the protobuf
+ * encoding (see src/main/proto/student.proto) instead of JSON. It offers
+ * the same StudentCollection interface as StudentTcpProxy, but keeps one
+ * connection open for all calls. The connection starts with the 0 byte
+ * that tells the server to use protobuf, then each call is one delimited
+ * Request answered by one delimited Response.
+ * streamNames is done by paging through getNamesPage.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class StudentProtoProxy extends Object implements StudentCollection {
+
+   private static final boolean debugOn = false;
+   private static final int pageSize = 1000;
+   private static AtomicInteger id = new AtomicInteger(0);
+   private String host;
+   private int port;
+   private Socket sock = null;
+   private InputStream in;
+   private OutputStream out;
+
+   public StudentProtoProxy (String host, int port){
+      this.host = host;
+      this.port = port;
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   private void connect() throws IOException {
+      sock = new Socket(host,port);
+      sock.setTcpNoDelay(true);
+      in = new BufferedInputStream(sock.getInputStream());
+      out = new BufferedOutputStream(sock.getOutputStream());
+      out.write(StudentCollectionTCPJsonRPCServer.protobufPreamble);
+   }
+
+   /**
+    * Close the connection, the next call opens a new one.
+    */
+   public synchronized void close(){
+      if (sock != null) {
+         try{
+            sock.close();
+         }catch(IOException ex){
+            debug("close failed: "+ex.getMessage());
+         }
+         sock = null;
+      }
+   }
+
+   /**
+    * Generic method caller. Calls are serialized on the one connection.
+    * @param method
+    * @param params
+    * @return the result, or null if the call failed
+    */
+   public synchronized Value callMethod(String method, Value... params){
+      try{
+         if (sock == null) {
+            connect();
+         }
+         Request theCall = Request.newBuilder()
+            .setId(id.getAndIncrement())
+            .setMethod(method)
+            .addAllParams(Arrays.asList(params))
+            .build();
+         if (debugOn) debug("Request is: "+theCall);
+         theCall.writeDelimitedTo(out);
+         out.flush();
+         Response response = Response.parseDelimitedFrom(in);
+         if (response == null) {
+            throw new EOFException("connection closed by server");
+         }
+         if (response.hasError()) {
+            System.out.println("server error in "+method+": "+
+                               response.getError().getMessage());
+            return null;
+         }
+         return response.getResult();
+      }catch(Exception ex){
+         System.out.println("exception in callMethod: "+ex.getMessage());
+         close();
+      }
+      return null;
+   }
+
+   private static Value text(String value){
+      return Value.newBuilder().setText(value).build();
+   }
+
+   private static Value number(int value){
+      return Value.newBuilder().setNumber(value).build();
+   }
+
+   private boolean flag(Value result){
+      return result != null && result.getFlag();
+   }
+
+   private String[] names(Value result){
+      if (result == null) {
+         return new String[0];
+      }
+      List<String> names = result.getNames().getNameList();
+      return names.toArray(new String[names.size()]);
+   }
+
+   public boolean saveToJsonFile(){
+      return flag(callMethod("saveToJsonFile"));
+   }
+
+   public boolean resetFromJsonFile(){
+      return flag(callMethod("resetFromJsonFile"));
+   }
+
+   public boolean add(Student stud){
+      return flag(callMethod("add", Value.newBuilder()
+                             .setStudent(StudentCollectionProtoSkeleton.toProto(stud))
+                             .build()));
+   }
+
+   public boolean remove(String aName){
+      return flag(callMethod("remove", text(aName)));
+   }
+
+   public Student get(String aName){
+      Value result = callMethod("get", text(aName));
+      if (result == null || !result.hasStudent()) {
+         return new Student("unknown",-999, new String[]{"unknown"});
+      }
+      return StudentCollectionProtoSkeleton.fromProto(result.getStudent());
+   }
+
+   public String getNameById(int id){
+      Value result = callMethod("getNameById", number(id));
+      return (result == null) ? "unknown" : result.getText();
+   }
+
+   public String[] getNames(){
+      return names(callMethod("getNames"));
+   }
+
+   public String[] getNamesByCourse(String course){
+      return names(callMethod("getNamesByCourse", text(course)));
+   }
+
+   public String[] getNamesPage(String afterName, int limit){
+      Value after = (afterName == null)
+         ? Value.newBuilder().setNone(true).build() : text(afterName);
+      return names(callMethod("getNamesPage", after, number(limit)));
+   }
+
+   public void streamNames(Consumer<String> action){
+      String after = null;
+      String[] page;
+      do {
+         page = getNamesPage(after, pageSize);
+         for (String aName : page){
+            action.accept(aName);
+         }
+         if (page.length > 0) {
+            after = page[page.length-1];
+         }
+      } while (page.length == pageSize);
+   }
+}
@@ -2,9 +2,19 @@ package client;
 
 import server.Student;
 import server.StudentCollection;
+import server.JsonRpcStream;
 import java.net.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
@@ -14,6 +24,13 @@ import org.json.JSONArray;
  * by marshalling/unmarshalling parameters and results and using a TCP
  * connection to request the method be executed on the server.
  * Byte arrays are used for communication to support multiple langs.
+ * The *Batched methods do not call the server right away; calls issued
+ * within a short window are coalesced into one JsonRPC batch request,
+ * which makes bulk operations such as importing many students much faster
+ * than one round trip per call.
+ * enableCache turns on a client side cache for get and getNames, kept up
+ * to date by change notifications the server pushes over a separate
+ * subscription connection, so reads of unchanged students stay local.
  *
  * @author Tim Lindquist ASU Polytechnic Department of Engineering
  * @version April 2020
@@ -21,10 +38,17 @@ import org.json.JSONArray;
 public class StudentTcpProxy extends Object implements StudentCollection {
 
    private static final boolean debugOn = false;
-   private static final int buffSize = 4096;
-   private static int id = 0;
+   private static final long batchWindowMillis = 5;
+   private static final int maxBatchSize = 1000;
+   private static final int streamChunkSize = 1000;
+   private static AtomicInteger id = new AtomicInteger(0);
    private String host;
    private int port;
+   private final Object batchLock = new Object();
+   private List<JSONObject> batchCalls = null;
+   private List<CompletableFuture<JSONObject>> batchResults = null;
+   private ScheduledExecutorService batchTimer = null;
+   private volatile StudentCache cache = null;
    
    public StudentTcpProxy (String host, int port){
       this.host = host;
@@ -37,45 +61,35 @@ public class StudentTcpProxy extends Object implements StudentCollection {
    }
 
    /**
-    * Generic method caller using TCP
+    * Generic method caller using TCP. The request is streamed to the
+    * server and the response parsed directly from the socket, so neither
+    * is limited to a fixed buffer size.
     * @param method
     * @param params
-    * @return
+    * @return the JsonRPC response object
     */
-   public String callMethod(String method, Object[] params){
-      // create JSON RPC message
-      JSONObject theCall = new JSONObject();
-      String ret = "{}";
+   public JSONObject callMethod(String method, Object[] params){
+      JSONObject ret = new JSONObject();
       try{
-         debug("Request is: "+theCall.toString());
-         theCall.put("method",method);
-         theCall.put("id",id);
-         theCall.put("jsonrpc","2.0");
-         ArrayList<Object> al = new ArrayList();
-         for (int i=0; i<params.length; i++){
-            al.add(params[i]);
-         }
-         JSONArray paramsJson = new JSONArray(al);
-         theCall.put("params",paramsJson);
+         JSONObject theCall = createCall(method, params);
+         if (debugOn) debug("Request is: "+theCall.toString());
 
-         // prep connection and the byte array
+         // prep connection and the message stream
          Socket sock = new Socket(host,port);
          OutputStream os = sock.getOutputStream();
          InputStream is = sock.getInputStream();
-         int numBytesReceived;
-         int bufLen = 1024;
-         String strToSend = theCall.toString();
-         byte bytesReceived[] = new byte[buffSize];
-         byte bytesToSend[] = strToSend.getBytes();
+         JsonRpcStream stream = new JsonRpcStream(is, os);
 
          // send the message
-         os.write(bytesToSend,0,bytesToSend.length);
+         stream.write(theCall);
          // get response
-         numBytesReceived = is.read(bytesReceived,0,bufLen);
-         ret = new String(bytesReceived,0,numBytesReceived);
+         JSONObject response = stream.read();
+         if (response != null) {
+            ret = response;
+         }
          
          // return
-         debug("callMethod received from server: "+ret);
+         if (debugOn) debug("callMethod received from server: "+ret.toString());
          os.close();
          is.close();
          sock.close();
@@ -85,66 +99,344 @@ public class StudentTcpProxy extends Object implements StudentCollection {
       return ret;
    }
 
+   private JSONObject createCall(String method, Object[] params){
+      // create JSON RPC message
+      JSONObject theCall = new JSONObject();
+      theCall.put("method",method);
+      theCall.put("id",id.getAndIncrement());
+      theCall.put("jsonrpc","2.0");
+      ArrayList<Object> al = new ArrayList();
+      for (int i=0; i<params.length; i++){
+         al.add(params[i]);
+      }
+      JSONArray paramsJson = new JSONArray(al);
+      theCall.put("params",paramsJson);
+      return theCall;
+   }
+
+   /**
+    * Generic batched method caller. The call is queued and sent to the
+    * server together with all other calls issued within the batch window,
+    * or as soon as the batch is full.
+    * @param method
+    * @param params
+    * @return completes with the JsonRPC response object, which is empty
+    *         if the call failed
+    */
+   public CompletableFuture<JSONObject> callMethodBatched(String method,
+                                                         Object[] params){
+      CompletableFuture<JSONObject> ret = new CompletableFuture<JSONObject>();
+      List<JSONObject> fullCalls = null;
+      List<CompletableFuture<JSONObject>> fullResults = null;
+      synchronized (batchLock) {
+         if (batchCalls == null) {
+            batchCalls = new ArrayList<JSONObject>();
+            batchResults = new ArrayList<CompletableFuture<JSONObject>>();
+            if (batchTimer == null) {
+               batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                  Thread t = new Thread(r, "StudentTcpProxy batch");
+                  t.setDaemon(true);
+                  return t;
+               });
+            }
+            batchTimer.schedule(this::flush, batchWindowMillis,
+                                TimeUnit.MILLISECONDS);
+         }
+         batchCalls.add(createCall(method, params));
+         batchResults.add(ret);
+         if (batchCalls.size() >= maxBatchSize) {
+            fullCalls = batchCalls;
+            fullResults = batchResults;
+            batchCalls = null;
+            batchResults = null;
+         }
+      }
+      if (fullCalls != null) {
+         sendBatch(fullCalls, fullResults);
+      }
+      return ret;
+   }
+
+   /**
+    * Send all queued batched calls now rather than waiting for the batch
+    * window to expire.
+    */
+   public void flush(){
+      List<JSONObject> calls;
+      List<CompletableFuture<JSONObject>> results;
+      synchronized (batchLock) {
+         calls = batchCalls;
+         results = batchResults;
+         batchCalls = null;
+         batchResults = null;
+      }
+      if (calls != null) {
+         sendBatch(calls, results);
+      }
+   }
+
+   private void sendBatch(List<JSONObject> calls,
+                          List<CompletableFuture<JSONObject>> results){
+      Map<Object,JSONObject> responses = new HashMap<Object,JSONObject>();
+      try{
+         debug("sending batch of "+calls.size()+" calls");
+         Socket sock = new Socket(host,port);
+         OutputStream os = sock.getOutputStream();
+         InputStream is = sock.getInputStream();
+         JsonRpcStream stream = new JsonRpcStream(is, os);
+         stream.write(new JSONArray(calls));
+         Object response = stream.readMessage();
+         if (response instanceof JSONArray) {
+            JSONArray resArr = (JSONArray)response;
+            for (int i=0; i<resArr.length(); i++){
+               JSONObject aRes = resArr.optJSONObject(i);
+               if (aRes != null) {
+                  responses.put(aRes.opt("id"), aRes);
+               }
+            }
+         }
+         os.close();
+         is.close();
+         sock.close();
+      }catch(Exception ex){
+         System.out.println("exception in sendBatch: "+ex.getMessage());
+      }
+      // match responses to calls by id, the server may reorder them
+      for (int i=0; i<calls.size(); i++){
+         JSONObject aRes = responses.get(calls.get(i).opt("id"));
+         results.get(i).complete((aRes == null) ? new JSONObject() : aRes);
+      }
+   }
+
+   /**
+    * Cache up to maxEntries students (least recently used are evicted)
+    * and the result of getNames. The proxy subscribes to change
+    * notifications from the server and drops cached entries as soon as the
+    * server reports a change. Changes made by other clients are visible
+    * once their notification arrives. If the subscription connection is
+    * lost the cache is turned off again and all reads go to the server.
+    * @return true if the subscription was accepted by the server
+    */
+   public boolean enableCache(int maxEntries) {
+      boolean ret = false;
+      try{
+         Socket sock = new Socket(host,port);
+         JsonRpcStream stream = new JsonRpcStream(sock.getInputStream(),
+                                                  sock.getOutputStream());
+         stream.write(createCall("subscribe", new Object[0]));
+         JSONObject res = stream.read();
+         ret = (res != null) && res.optBoolean("result",false);
+         if (!ret) {
+            sock.close();
+            return false;
+         }
+         final StudentCache newCache = new StudentCache(maxEntries);
+         Thread listener = new Thread(() -> listen(sock, stream, newCache),
+                                      "StudentTcpProxy notifications");
+         listener.setDaemon(true);
+         cache = newCache;
+         listener.start();
+      }catch(Exception ex){
+         System.out.println("exception in enableCache: "+ex.getMessage());
+      }
+      return ret;
+   }
+
+   private void listen(Socket sock, JsonRpcStream stream, StudentCache aCache){
+      try{
+         JSONObject notification;
+         while ((notification = stream.read()) != null) {
+            String method = notification.optString("method");
+            if (method.equals("changed")) {
+               JSONArray params = notification.optJSONArray("params");
+               aCache.invalidate(params.optString(0));
+            } else if (method.equals("reset")) {
+               aCache.clear();
+            }
+         }
+      }catch(Exception ex){
+         debug("notification connection failed: "+ex.getMessage());
+      }
+      // without notifications the cached entries can not be trusted
+      if (cache == aCache) {
+         cache = null;
+      }
+      aCache.clear();
+      try{
+         sock.close();
+      }catch(IOException ex){
+      }
+   }
+
+   private void invalidate(String aName) {
+      StudentCache aCache = cache;
+      if (aCache != null) {
+         aCache.invalidate(aName);
+      }
+   }
+
+   public CompletableFuture<Boolean> addBatched(Student stud) {
+      return callMethodBatched("add", new Object[]{stud.toJson()})
+         .thenApply(res -> {
+               invalidate(stud.name);
+               return res.optBoolean("result",false);
+            });
+   }
+
+   public CompletableFuture<Boolean> removeBatched(String aName) {
+      return callMethodBatched("remove", new Object[]{aName})
+         .thenApply(res -> {
+               invalidate(aName);
+               return res.optBoolean("result",false);
+            });
+   }
+
+   public CompletableFuture<Student> getBatched(String aName) {
+      return callMethodBatched("get", new Object[]{aName})
+         .thenApply(res -> new Student(res.optJSONObject("result")));
+   }
+
    public boolean saveToJsonFile() {
       boolean ret = false;
-      String result = callMethod("saveToJsonFile", new Object[]{});
-      JSONObject res = new JSONObject(result);
+      JSONObject res = callMethod("saveToJsonFile", new Object[]{});
       ret = res.optBoolean("result",false);
       return ret;
    }
    
    public boolean resetFromJsonFile() {
       boolean ret = false;
-      String result = callMethod("resetFromJsonFile", new Object[]{});
-      JSONObject res = new JSONObject(result);
+      JSONObject res = callMethod("resetFromJsonFile", new Object[]{});
       ret = res.optBoolean("result",false);
+      StudentCache aCache = cache;
+      if (aCache != null) {
+         aCache.clear();
+      }
       return ret;
    }
    
    public boolean add(Student stud) {
       boolean ret = false;
-      String result = callMethod("add", new Object[]{stud.toJson()});
-      JSONObject res = new JSONObject(result);
+      JSONObject res = callMethod("add", new Object[]{stud.toJson()});
       ret = res.optBoolean("result",false);
+      invalidate(stud.name);
       return ret;
    }
    
    public boolean remove(String aName) {
       boolean ret = false;
-      String result = callMethod("remove", new Object[]{aName});
-      JSONObject res = new JSONObject(result);
+      JSONObject res = callMethod("remove", new Object[]{aName});
       ret = res.optBoolean("result",false);
+      invalidate(aName);
       return ret;
    }
    
    public Student get(String aName) {
       Student ret = new Student("unknown",-999, new String[]{"unknown"});
-      String result = callMethod("get", new Object[]{aName});
-      JSONObject res = new JSONObject(result);
+      StudentCache aCache = cache;
+      long version = 0;
+      if (aCache != null) {
+         Student cached = aCache.get(aName);
+         if (cached != null) {
+            return cached;
+         }
+         version = aCache.version();
+      }
+      JSONObject res = callMethod("get", new Object[]{aName});
       JSONObject studJson = res.optJSONObject("result");
       ret = new Student(studJson);
+      if (aCache != null && studJson != null) {
+         aCache.put(aName, ret, version);
+      }
       return ret;
    }
    
    public String getNameById(int id) {
       String ret = "unknown";
-      String result = callMethod("getNameById", new Object[]{id});
-      JSONObject res = new JSONObject(result);
+      JSONObject res = callMethod("getNameById", new Object[]{id});
       ret = res.optString("result","unknown");
       return ret;
    }
    
    public String[] getNames() {
       String[] ret = new String[]{};
-      String result = callMethod("getNames", new Object[0]);
-      debug("result of getNames is: "+result);
-      JSONObject res = new JSONObject(result);
+      StudentCache aCache = cache;
+      long version = 0;
+      if (aCache != null) {
+         String[] cached = aCache.getNames();
+         if (cached != null) {
+            return cached.clone();
+         }
+         version = aCache.version();
+      }
+      JSONObject res = callMethod("getNames", new Object[0]);
       JSONArray namesJson = res.optJSONArray("result");
       ret = new String[namesJson.length()];
       for (int i=0; i<namesJson.length(); i++){
          ret[i] = namesJson.optString(i,"unknown");
       }
+      if (aCache != null) {
+         aCache.putNames(ret.clone(), version);
+      }
+      return ret;
+   }
+
+   public String[] getNamesByCourse(String course) {
+      String[] ret = new String[]{};
+      JSONObject res = callMethod("getNamesByCourse", new Object[]{course});
+      JSONArray namesJson = res.optJSONArray("result");
+      if (namesJson != null) {
+         ret = new String[namesJson.length()];
+         for (int i=0; i<namesJson.length(); i++){
+            ret[i] = namesJson.optString(i,"unknown");
+         }
+      }
       return ret;
    }
-}
 
+   public String[] getNamesPage(String afterName, int limit) {
+      String[] ret = new String[]{};
+      JSONObject res = callMethod("getNamesPage", new Object[]{
+            (afterName == null) ? JSONObject.NULL : afterName, limit});
+      JSONArray namesJson = res.optJSONArray("result");
+      if (namesJson != null) {
+         ret = new String[namesJson.length()];
+         for (int i=0; i<namesJson.length(); i++){
+            ret[i] = namesJson.optString(i,"unknown");
+         }
+      }
+      return ret;
+   }
+
+   /**
+    * Receive the names from the server in chunks and pass each one to the
+    * action as soon as its chunk arrives, so only one chunk is in memory.
+    */
+   public void streamNames(Consumer<String> action) {
+      try{
+         JSONObject theCall = createCall("streamNames", new Object[]{streamChunkSize});
+         Socket sock = new Socket(host,port);
+         OutputStream os = sock.getOutputStream();
+         InputStream is = sock.getInputStream();
+         JsonRpcStream stream = new JsonRpcStream(is, os);
+         stream.write(theCall);
+         boolean more = true;
+         while (more) {
+            JSONObject res = stream.read();
+            JSONObject chunk = (res == null) ? null : res.optJSONObject("result");
+            if (chunk == null) {
+               break;
+            }
+            JSONArray namesJson = chunk.optJSONArray("names");
+            for (int i=0; i<namesJson.length(); i++){
+               action.accept(namesJson.optString(i,"unknown"));
+            }
+            more = chunk.optBoolean("more",false);
+         }
+         os.close();
+         is.close();
+         sock.close();
+      }catch(Exception ex){
+         System.out.println("exception in streamNames: "+ex.getMessage());
+      }
+   }
+}
@@ -0,0 +1,258 @@
+package client;
+
+import server.JsonRpcStream;
+import server.Student;
+import server.StudentCollectionProtoSkeleton;
+import server.StudentCollectionTCPJsonRPCServer;
+import java.net.*;
+import java.io.*;
+import buffers.StudentProtos.Request;
+import buffers.StudentProtos.Response;
+import buffers.StudentProtos.Value;
+import org.json.JSONObject;
+import org.json.JSONArray;
+
+/**
+ * Purpose: compare the JSON and the protobuf encoding of the student
+ * service against a running server. For each encoding one connection is
+ * kept open and the same calls are made on it for a fixed time: add and
+ * get of realistic students (full names, 7 digit ids, several courses)
+ * and getNames. The streams are wrapped to count the bytes on the wire in
+ * both directions, so the table shows bytes per call as well as calls per
+ * second. The benchmark adds its students to the server and removes them
+ * again at the end.
+ *
+ * run with:
+ * gradle runTransportBenchmark --args '<host> <port> <seconds> <students>'
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class TransportBenchmark extends Object {
+
+   private static final String[] first = {"Ann","Bob","Carla","Deepak","Elena",
+                                          "Farid","Grace","Hiro","Ines","Jamal"};
+   private static final String[] last = {"Nguyen","Smith","Garcia","Okafor",
+                                         "Johansson","Patel","Kowalski","Tanaka"};
+   private static final String[] courses = {"Ser321","Ser316","Ser334","Ser335",
+                                            "Ser415","Ser423","Cse310","Mat243"};
+
+   /**
+    * Counts the bytes written to the wrapped stream.
+    */
+   static class CountingOutputStream extends FilterOutputStream {
+      long count = 0;
+      CountingOutputStream(OutputStream out){ super(out); }
+      public void write(int b) throws IOException {
+         out.write(b);
+         count++;
+      }
+      public void write(byte[] b, int off, int len) throws IOException {
+         out.write(b, off, len);
+         count += len;
+      }
+   }
+
+   /**
+    * Counts the bytes read from the wrapped stream.
+    */
+   static class CountingInputStream extends FilterInputStream {
+      long count = 0;
+      CountingInputStream(InputStream in){ super(in); }
+      public int read() throws IOException {
+         int b = in.read();
+         if (b >= 0) count++;
+         return b;
+      }
+      public int read(byte[] b, int off, int len) throws IOException {
+         int n = in.read(b, off, len);
+         if (n > 0) count += n;
+         return n;
+      }
+   }
+
+   /**
+    * One connection with a given encoding, making a single call at a time.
+    */
+   static abstract class Transport {
+      Socket sock;
+      CountingOutputStream sent;
+      CountingInputStream received;
+      int nextId = 0;
+
+      Transport(String host, int port) throws IOException {
+         sock = new Socket(host, port);
+         sock.setTcpNoDelay(true);
+         sent = new CountingOutputStream(sock.getOutputStream());
+         received = new CountingInputStream(sock.getInputStream());
+      }
+
+      abstract void add(Student stud) throws IOException;
+      abstract void get(String aName) throws IOException;
+      abstract void getNames() throws IOException;
+      abstract void remove(String aName) throws IOException;
+
+      long bytes(){
+         return sent.count + received.count;
+      }
+
+      void close() throws IOException {
+         sock.close();
+      }
+   }
+
+   static class JsonTransport extends Transport {
+      JsonRpcStream stream;
+
+      JsonTransport(String host, int port) throws IOException {
+         super(host, port);
+         stream = new JsonRpcStream(received, sent);
+      }
+
+      private JSONObject call(String method, Object param) throws IOException {
+         JSONObject theCall = new JSONObject();
+         theCall.put("method",method);
+         theCall.put("id",nextId++);
+         theCall.put("jsonrpc","2.0");
+         JSONArray params = new JSONArray();
+         if (param != null) {
+            params.put(param);
+         }
+         theCall.put("params",params);
+         stream.write(theCall);
+         JSONObject response = stream.read();
+         if (response == null || response.has("error")) {
+            throw new IOException("call of "+method+" failed");
+         }
+         return response;
+      }
+
+      void add(Student stud) throws IOException {
+         call("add", stud.toJson());
+      }
+
+      void get(String aName) throws IOException {
+         new Student(call("get", aName).getJSONObject("result"));
+      }
+
+      void getNames() throws IOException {
+         call("getNames", null).getJSONArray("result");
+      }
+
+      void remove(String aName) throws IOException {
+         call("remove", aName);
+      }
+   }
+
+   static class ProtoTransport extends Transport {
+      OutputStream out;
+      InputStream in;
+
+      ProtoTransport(String host, int port) throws IOException {
+         super(host, port);
+         out = new BufferedOutputStream(sent);
+         in = new BufferedInputStream(received);
+         out.write(StudentCollectionTCPJsonRPCServer.protobufPreamble);
+      }
+
+      private Value call(String method, Value param) throws IOException {
+         Request.Builder theCall = Request.newBuilder()
+            .setId(nextId++).setMethod(method);
+         if (param != null) {
+            theCall.addParams(param);
+         }
+         theCall.build().writeDelimitedTo(out);
+         out.flush();
+         Response response = Response.parseDelimitedFrom(in);
+         if (response == null || response.hasError()) {
+            throw new IOException("call of "+method+" failed");
+         }
+         return response.getResult();
+      }
+
+      void add(Student stud) throws IOException {
+         call("add", Value.newBuilder()
+              .setStudent(StudentCollectionProtoSkeleton.toProto(stud)).build());
+      }
+
+      void get(String aName) throws IOException {
+         StudentCollectionProtoSkeleton.fromProto(
+            call("get", Value.newBuilder().setText(aName).build()).getStudent());
+      }
+
+      void getNames() throws IOException {
+         call("getNames", null).getNames().getNameCount();
+      }
+
+      void remove(String aName) throws IOException {
+         call("remove", Value.newBuilder().setText(aName).build());
+      }
+   }
+
+   static Student student(int i){
+      String[] takes = new String[3 + i % 4];
+      for (int c=0; c<takes.length; c++){
+         takes[c] = courses[(i + c) % courses.length];
+      }
+      return new Student(first[i % first.length]+" "+last[(i / first.length) % last.length]+
+                         " "+i, 1200000 + i, takes);
+   }
+
+   /**
+    * Run one kind of call for the given time.
+    * @return calls per second and bytes per call
+    */
+   private static double[] run(Transport t, String kind, Student[] studs,
+                               long millis) throws IOException {
+      long calls = 0;
+      long bytesBefore = t.bytes();
+      long stopAt = System.nanoTime() + millis * 1000000L;
+      while (System.nanoTime() < stopAt) {
+         Student stud = studs[(int)(calls % studs.length)];
+         if (kind.equals("add")) {
+            t.add(stud);
+         } else if (kind.equals("get")) {
+            t.get(stud.name);
+         } else {
+            t.getNames();
+         }
+         calls++;
+      }
+      return new double[]{calls * 1000.0 / millis,
+                          (double)(t.bytes() - bytesBefore) / calls};
+   }
+
+   public static void main(String args[]) throws Exception {
+      String host = "localhost";
+      int port = 9099;
+      int seconds = 3;
+      int students = 100;
+      if (args.length >= 1) host = args[0];
+      if (args.length >= 2) port = Integer.parseInt(args[1]);
+      if (args.length >= 3) seconds = Integer.parseInt(args[2]);
+      if (args.length >= 4) students = Integer.parseInt(args[3]);
+      Student[] studs = new Student[students];
+      for (int i=0; i<students; i++){
+         studs[i] = student(i);
+      }
+      Transport json = new JsonTransport(host, port);
+      Transport proto = new ProtoTransport(host, port);
+      System.out.println(students+" students, "+seconds+"s per run against "+
+                         host+":"+port);
+      System.out.println("method      json (calls/s)  json (bytes/call)"+
+                         "  protobuf (calls/s)  protobuf (bytes/call)");
+      for (String kind : new String[]{"add","get","getNames"}){
+         // warm up both encodings
+         run(json, kind, studs, 300);
+         run(proto, kind, studs, 300);
+         double[] j = run(json, kind, studs, seconds*1000L);
+         double[] p = run(proto, kind, studs, seconds*1000L);
+         System.out.println(String.format("%-10s %15.0f %18.1f %19.0f %22.1f",
+                                          kind, j[0], j[1], p[0], p[1]));
+      }
+      for (Student stud : studs){
+         proto.remove(stud.name);
+      }
+      json.close();
+      proto.close();
+   }
+}
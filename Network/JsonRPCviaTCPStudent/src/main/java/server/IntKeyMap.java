@@ -0,0 +1,137 @@
+package server;
+
+/**
+ * Purpose: a small hash map from primitive int keys to objects, used by the
+ * student collection to index students by studentid. Keys are stored in an
+ * int array so lookups neither box the key nor allocate. Collisions are
+ * resolved by linear probing and removal shifts the following entries back,
+ * so no tombstones are left behind. Values may not be null.
+ * The map is not synchronized, callers guard it with their own lock.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+class IntKeyMap<V> extends Object {
+
+   private static final int initialCapacity = 16;
+   private int[] keys;
+   private Object[] values;
+   private int size;
+   private int mask;
+
+   public IntKeyMap() {
+      clear();
+   }
+
+   private int slot(int key) {
+      int h = key * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & mask;
+   }
+
+   private int indexOf(int key) {
+      int i = slot(key);
+      while (values[i] != null) {
+         if (keys[i] == key) {
+            return i;
+         }
+         i = (i + 1) & mask;
+      }
+      return -1;
+   }
+
+   @SuppressWarnings("unchecked")
+   public V get(int key) {
+      int i = indexOf(key);
+      return (i < 0) ? null : (V)values[i];
+   }
+
+   public boolean containsKey(int key) {
+      return indexOf(key) >= 0;
+   }
+
+   /**
+    * @return the value previously stored for the key, or null
+    */
+   @SuppressWarnings("unchecked")
+   public V put(int key, V value) {
+      if (value == null) {
+         throw new IllegalArgumentException("null values are not supported");
+      }
+      int i = slot(key);
+      while (values[i] != null) {
+         if (keys[i] == key) {
+            V old = (V)values[i];
+            values[i] = value;
+            return old;
+         }
+         i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = value;
+      size++;
+      // keep the table at most half full so probe sequences stay short
+      if (size * 2 > values.length) {
+         resize(values.length * 2);
+      }
+      return null;
+   }
+
+   /**
+    * @return the value that was stored for the key, or null
+    */
+   @SuppressWarnings("unchecked")
+   public V remove(int key) {
+      int i = indexOf(key);
+      if (i < 0) {
+         return null;
+      }
+      V old = (V)values[i];
+      // shift back entries of the probe sequence that follows the hole
+      int j = i;
+      while (true) {
+         j = (j + 1) & mask;
+         if (values[j] == null) {
+            break;
+         }
+         int home = slot(keys[j]);
+         boolean movable = (i <= j) ? (home <= i || home > j)
+                                    : (home <= i && home > j);
+         if (movable) {
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+         }
+      }
+      values[i] = null;
+      size--;
+      return old;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public void clear() {
+      keys = new int[initialCapacity];
+      values = new Object[initialCapacity];
+      mask = initialCapacity - 1;
+      size = 0;
+   }
+
+   private void resize(int capacity) {
+      int[] oldKeys = keys;
+      Object[] oldValues = values;
+      keys = new int[capacity];
+      values = new Object[capacity];
+      mask = capacity - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+         if (oldValues[i] != null) {
+            int j = slot(oldKeys[i]);
+            while (values[j] != null) {
+               j = (j + 1) & mask;
+            }
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+         }
+      }
+   }
+}
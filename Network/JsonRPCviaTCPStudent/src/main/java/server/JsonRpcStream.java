@@ -0,0 +1,116 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+import org.json.JSONArray;
+import org.json.JSONTokener;
+import org.json.JSONException;
+
+/**
+ * Purpose: message framing for JsonRPC over a TCP/IP stream socket.
+ * Each message is a single JSON object, or a JsonRPC batch array, written
+ * in UTF-8 and terminated by a newline. Reading does not depend on the newline though: the
+ * tokener parses exactly one JSON value incrementally from the stream,
+ * so requests and responses of any size are read without first copying
+ * them into a fixed byte array. Writing streams the JSON text directly
+ * to the socket rather than building the whole String first.
+ * Used by both the client proxy and the server, so several messages may
+ * be exchanged over the same connection.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class JsonRpcStream extends Object {
+
+   private static final int buffSize = 8192;
+   private JSONTokener in;
+   private Writer out;
+
+   public JsonRpcStream (InputStream is, OutputStream os){
+      in = new JSONTokener(new BufferedReader(
+         new InputStreamReader(is, StandardCharsets.UTF_8), buffSize));
+      out = new BufferedWriter(
+         new OutputStreamWriter(os, StandardCharsets.UTF_8), buffSize);
+   }
+
+   /**
+    * Read the next message from the stream.
+    * @return the message or null if the other side closed the connection
+    * @throws IOException if the stream does not contain a valid JSON object
+    */
+   public JSONObject read() throws IOException {
+      Object message = readMessage();
+      if (message != null && !(message instanceof JSONObject)) {
+         throw new IOException("expected a JsonRPC object but got an array");
+      }
+      return (JSONObject)message;
+   }
+
+   /**
+    * Read the next message from the stream, which is either a single
+    * call or response object, or a JsonRPC batch array.
+    * @return a JSONObject, a JSONArray or null if the other side closed
+    *         the connection
+    * @throws IOException if the stream does not contain a valid message
+    */
+   public Object readMessage() throws IOException {
+      try{
+         char c = in.nextClean();
+         if (c == 0) {
+            return null;
+         }
+         in.back();
+         if (c == '[') {
+            return new JSONArray(in);
+         }
+         return new JSONObject(in);
+      }catch(JSONException ex){
+         throw new IOException("malformed JsonRPC message: "+ex.getMessage());
+      }
+   }
+
+   /**
+    * Write one message followed by the newline delimiter and flush it.
+    * @param message the JsonRPC request or response
+    */
+   public void write(JSONObject message) throws IOException {
+      try{
+         message.write(out);
+      }catch(JSONException ex){
+         throw new IOException("unable to write JsonRPC message: "+ex.getMessage());
+      }
+      out.write('\n');
+      out.flush();
+   }
+
+   /**
+    * @return the writer a message can be serialized to directly, the
+    *         message must be completed with endMessage
+    */
+   public Writer writer() {
+      return out;
+   }
+
+   /**
+    * Write the newline delimiter after a message written to writer()
+    * and flush it.
+    */
+   public void endMessage() throws IOException {
+      out.write('\n');
+      out.flush();
+   }
+
+   /**
+    * Write a JsonRPC batch followed by the newline delimiter and flush it.
+    * @param messages the array of requests or responses
+    */
+   public void write(JSONArray messages) throws IOException {
+      try{
+         messages.write(out);
+      }catch(JSONException ex){
+         throw new IOException("unable to write JsonRPC message: "+ex.getMessage());
+      }
+      out.write('\n');
+      out.flush();
+   }
+}
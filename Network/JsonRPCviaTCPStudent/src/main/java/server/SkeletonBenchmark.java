@@ -0,0 +1,101 @@
+package server;
+
+import java.io.CharArrayWriter;
+import java.util.HashMap;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+/**
+ * Purpose: measure how many calls per second the StudentCollectionSkeleton
+ * handles on its own, without sockets and with an in memory collection,
+ * so only unmarshalling, dispatch and marshalling are timed.
+ * Each method is run through callMethod(String), which parses the request
+ * and returns the response as a String, and through the streaming
+ * callMethod(JSONObject, Writer) the server uses.
+ *
+ * run with:
+ * gradle runSkeletonBenchmark --args '<seconds> <students>'
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class SkeletonBenchmark extends Object {
+
+   /**
+    * Minimal collection so the benchmark measures the skeleton only.
+    */
+   static class MemoryStudentCollection implements StudentCollection {
+      private HashMap<String,Student> students = new HashMap<String,Student>();
+      private HashMap<Integer,String> ids = new HashMap<Integer,String>();
+      public boolean saveToJsonFile(){ return true; }
+      public boolean resetFromJsonFile(){ return true; }
+      public boolean add(Student stud){
+         students.put(stud.name, stud);
+         ids.put(stud.studentid, stud.name);
+         return true;
+      }
+      public boolean remove(String aName){ return students.remove(aName) != null; }
+      public Student get(String aName){ return students.get(aName); }
+      public String getNameById(int id){ return ids.getOrDefault(id, "unknown"); }
+      public String[] getNames(){ return students.keySet().toArray(new String[0]); }
+      public String[] getNamesByCourse(String course){ return new String[0]; }
+      public String[] getNamesPage(String afterName, int limit){ return new String[0]; }
+      public void streamNames(Consumer<String> action){
+         students.keySet().forEach(action);
+      }
+   }
+
+   private static double stringPath(StudentCollectionSkeleton skel,
+                                    String request, long millis){
+      long calls = 0;
+      long stopAt = System.nanoTime() + millis * 1000000L;
+      while (System.nanoTime() < stopAt) {
+         skel.callMethod(request).length();
+         calls++;
+      }
+      return calls * 1000.0 / millis;
+   }
+
+   private static double streamPath(StudentCollectionSkeleton skel,
+                                    String request, long millis) throws Exception {
+      long calls = 0;
+      CharArrayWriter out = new CharArrayWriter(1024);
+      long stopAt = System.nanoTime() + millis * 1000000L;
+      while (System.nanoTime() < stopAt) {
+         out.reset();
+         skel.callMethod(new JSONObject(request), out);
+         calls++;
+      }
+      return calls * 1000.0 / millis;
+   }
+
+   public static void main(String args[]) throws Exception {
+      int seconds = 2;
+      int students = 1000;
+      if (args.length >= 1) seconds = Integer.parseInt(args[0]);
+      if (args.length >= 2) students = Integer.parseInt(args[1]);
+      StudentCollection lib = new MemoryStudentCollection();
+      for (int i=0; i<students; i++){
+         lib.add(new Student("Student"+i, i, new String[]{"Ser321","Ser423"}));
+      }
+      StudentCollectionSkeleton skel = new StudentCollectionSkeleton(lib);
+      String stud = new Student("Student7", 7, new String[]{"Ser321","Ser423"})
+         .toJsonString();
+      String[][] requests = {
+         {"getNameById", "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"getNameById\",\"params\":[42]}"},
+         {"get", "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"get\",\"params\":[\"Student42\"]}"},
+         {"add", "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"add\",\"params\":["+stud+"]}"},
+         {"getNames", "{\"jsonrpc\":\"2.0\",\"id\":4,\"method\":\"getNames\",\"params\":[]}"},
+         {"saveToJsonFile", "{\"jsonrpc\":\"2.0\",\"id\":5,\"method\":\"saveToJsonFile\",\"params\":[]}"}
+      };
+      System.out.println(students+" students, "+seconds+"s per run");
+      System.out.println("method            String path (calls/s)   streaming (calls/s)");
+      for (String[] req : requests){
+         // warm up both paths
+         stringPath(skel, req[1], 300);
+         streamPath(skel, req[1], 300);
+         double str = stringPath(skel, req[1], seconds*1000L);
+         double stream = streamPath(skel, req[1], seconds*1000L);
+         System.out.println(String.format("%-16s %22.0f %21.0f", req[0], str, stream));
+      }
+   }
+}
@@ -12,54 +12,72 @@ package server;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.util.Vector;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * A Student is immutable: the fields are final and takes can not be
+ * modified, so the collection can hand the same instance to any number
+ * of concurrent readers without copying or locking it.
+ */
 public class Student {
 
    private static final boolean debugOn = false;
 
-   public String name;
-   public int studentid;
-   public Vector<String> takes;
+   public final String name;
+   public final int studentid;
+   public final List<String> takes;
 
    public Student(String name, int studentid, String[] courses){
       this.name = name;
       this.studentid = studentid;
-      this.takes = new Vector<String>();
-      this.takes.addAll(Arrays.asList(courses));
+      this.takes = Collections.unmodifiableList(
+         new ArrayList<String>(Arrays.asList(courses)));
    }
 
    public Student(String jsonStr){
+      String aName = null;
+      int anId = 0;
+      ArrayList<String> courses = new ArrayList<String>();
       try{
          JSONObject jo = new JSONObject(jsonStr);
-         name = jo.getString("name");
-         studentid = jo.getInt("studentid");
-         takes = new Vector<String>();
+         aName = jo.getString("name");
+         anId = jo.getInt("studentid");
          JSONArray ja = jo.optJSONArray("takes");
          for (int i=0; i< ja.length(); i++){
-            takes.add(ja.getString(i));
+            courses.add(ja.getString(i));
          }
       }catch (Exception ex){
          System.out.println(this.getClass().getSimpleName()+
                             ": error converting from json string");
       }
+      name = aName;
+      studentid = anId;
+      takes = Collections.unmodifiableList(courses);
    }
 
    public Student(JSONObject jsonObj){
+      String aName = null;
+      int anId = 0;
+      ArrayList<String> courses = new ArrayList<String>();
       try{
-         debug("constructor from json received: " + jsonObj.toString());
-         name = jsonObj.optString("name","unknown");
-         studentid = jsonObj.optInt("studentid",0);
-         takes = new Vector<String>();
+         if (debugOn) debug("constructor from json received: " + jsonObj.toString());
+         aName = jsonObj.optString("name","unknown");
+         anId = jsonObj.optInt("studentid",0);
          JSONArray ja = jsonObj.getJSONArray("takes");
+         courses.ensureCapacity(ja.length());
          for (int i=0; i< ja.length(); i++){
-            takes.add(ja.getString(i));
+            courses.add(ja.getString(i));
          }
       }catch(Exception ex){
          System.out.println(this.getClass().getSimpleName()+
                             ": error converting from json string");
       }
+      name = aName;
+      studentid = anId;
+      takes = Collections.unmodifiableList(courses);
    }
 
    public JSONObject toJson(){
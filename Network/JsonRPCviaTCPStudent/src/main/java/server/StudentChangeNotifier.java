@@ -0,0 +1,178 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Purpose: pushes change notifications to subscribed clients, so they can
+ * cache students and invalidate their copies when a student changes.
+ * It wraps the student collection and forwards every call to it. After a
+ * successful add or remove a JsonRPC notification (a request without id)
+ * {"jsonrpc":"2.0","method":"changed","params":[name]} is queued, and after
+ * resetFromJsonFile {"jsonrpc":"2.0","method":"reset","params":[]}.
+ * Every subscribed connection has its own bounded queue and sender thread,
+ * so a slow client never delays the server thread that made the change or
+ * the other subscribers. A client that falls maxQueued notifications
+ * behind, or whose connection fails, is dropped and its connection closed;
+ * it has to subscribe again and forget what it cached.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class StudentChangeNotifier extends Object implements StudentCollection {
+
+   private static final boolean debugOn = false;
+   // notifications a subscriber may be behind before it is dropped
+   private static final int maxQueued = 1000;
+   private StudentCollection studLib;
+   private Map<JsonRpcStream,Subscriber> subscribers =
+      new ConcurrentHashMap<JsonRpcStream,Subscriber>();
+
+   public StudentChangeNotifier (StudentCollection studLib){
+      this.studLib = studLib;
+   }
+
+   /**
+    * One subscribed connection, with the notifications not yet written to
+    * it and the thread writing them.
+    */
+   private class Subscriber implements Runnable {
+      final JsonRpcStream stream;
+      final Closeable connection;
+      final BlockingQueue<JSONObject> pending =
+         new ArrayBlockingQueue<JSONObject>(maxQueued);
+      final Thread sender = new Thread(this, "change notifier");
+
+      Subscriber(JsonRpcStream stream, Closeable connection){
+         this.stream = stream;
+         this.connection = connection;
+         sender.setDaemon(true);
+      }
+
+      public void run(){
+         try{
+            while (true) {
+               JSONObject notification = pending.take();
+               synchronized (stream) {
+                  stream.write(notification);
+               }
+            }
+         }catch(InterruptedException ex){
+            // unsubscribed or dropped
+         }catch(IOException ex){
+            drop(this, ex.getMessage());
+         }
+      }
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   /**
+    * Send notifications of all following changes to this connection,
+    * until unsubscribe is called or the connection is dropped.
+    * @param stream the stream the notifications are written to
+    * @param connection closed when the subscriber is dropped, which also
+    *        ends a write that is blocked on the client
+    */
+   public void subscribe(JsonRpcStream stream, Closeable connection){
+      Subscriber subscriber = new Subscriber(stream, connection);
+      subscribers.put(stream, subscriber);
+      subscriber.sender.start();
+      debug("subscribed, "+subscribers.size()+" subscribers");
+   }
+
+   public void unsubscribe(JsonRpcStream stream){
+      Subscriber subscriber = subscribers.remove(stream);
+      if (subscriber != null) {
+         subscriber.sender.interrupt();
+      }
+      debug("unsubscribed, "+subscribers.size()+" subscribers");
+   }
+
+   private void drop(Subscriber subscriber, String reason){
+      if (!subscribers.remove(subscriber.stream, subscriber)) {
+         return;
+      }
+      debug("dropping subscriber: "+reason);
+      subscriber.sender.interrupt();
+      try{
+         subscriber.connection.close();
+      }catch(IOException ex){
+         debug("closing dropped subscriber: "+ex.getMessage());
+      }
+   }
+
+   private void notify(String method, Object[] params){
+      if (subscribers.isEmpty()) {
+         return;
+      }
+      JSONObject notification = new JSONObject();
+      notification.put("jsonrpc","2.0");
+      notification.put("method",method);
+      notification.put("params",new JSONArray(params));
+      for (Subscriber subscriber : subscribers.values()){
+         if (!subscriber.pending.offer(notification)) {
+            drop(subscriber, maxQueued+" notifications behind");
+         }
+      }
+   }
+
+   public boolean saveToJsonFile(){
+      return studLib.saveToJsonFile();
+   }
+
+   public boolean resetFromJsonFile(){
+      boolean ret = studLib.resetFromJsonFile();
+      notify("reset", new Object[0]);
+      return ret;
+   }
+
+   public boolean add(Student stud){
+      boolean ret = studLib.add(stud);
+      if (ret) {
+         notify("changed", new Object[]{stud.name});
+      }
+      return ret;
+   }
+
+   public boolean remove(String aName){
+      boolean ret = studLib.remove(aName);
+      if (ret) {
+         notify("changed", new Object[]{aName});
+      }
+      return ret;
+   }
+
+   public Student get(String aName){
+      return studLib.get(aName);
+   }
+
+   public String getNameById(int id){
+      return studLib.getNameById(id);
+   }
+
+   public String[] getNames(){
+      return studLib.getNames();
+   }
+
+   public String[] getNamesByCourse(String course){
+      return studLib.getNamesByCourse(course);
+   }
+
+   public String[] getNamesPage(String afterName, int limit){
+      return studLib.getNamesPage(afterName, limit);
+   }
+
+   public void streamNames(Consumer<String> action){
+      studLib.streamNames(action);
+   }
+}
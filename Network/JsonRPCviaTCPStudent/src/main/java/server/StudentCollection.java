@@ -16,4 +16,17 @@ public interface StudentCollection {
    public Student get(String aName);
    public String getNameById(int id);
    public String[] getNames();
+   public String[] getNamesByCourse(String course);
+   /**
+    * One page of the student names in alphabetical order.
+    * @param afterName cursor, the last name of the previous page, or null
+    *        (or the empty string) for the first page
+    * @param limit maximum number of names returned
+    */
+   public String[] getNamesPage(String afterName, int limit);
+   /**
+    * Pass every student name to the action one at a time, so the names
+    * never need to be held in memory all at once.
+    */
+   public void streamNames(java.util.function.Consumer<String> action);
 }
@@ -0,0 +1,271 @@
+package server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Purpose: measure the throughput of the student collection when several
+ * server threads use it at the same time. Each thread runs a mix of calls
+ * for a fixed time. The striped StudentCollectionImpl is compared against
+ * a copy of the previous Hashtable based collection, which kept the
+ * students in memory only. Two mixes are run: a read mix of get and
+ * getNames calls, which no log is involved in, and a write mix that also
+ * adds students. In the write mix each add of StudentCollectionImpl waits
+ * until its write-ahead log record is on disk, so that column includes the
+ * cost of durability and the Hashtable column does not. Each
+ * StudentCollectionImpl keeps its log in a new temporary directory.
+ *
+ * run with:
+ * gradle runBenchmark --args '<maxThreads> <seconds> <students>'
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class StudentCollectionBenchmark extends Object {
+
+   // percentages of the write mix, the rest are getNames calls; the read
+   // mix has no adds
+   private static final int getPercent = 90;
+   private static final int addPercent = 9;
+
+   /**
+    * Baseline: the collection as it was before the striped one, students
+    * in a Hashtable and no indexes or log. The calls added to
+    * StudentCollection since then scan the students, the way it would have
+    * done them.
+    */
+   static class HashtableStudentCollection implements StudentCollection {
+      public Hashtable<String,Student> students = new Hashtable<String,Student>();
+      private final Path file;
+
+      HashtableStudentCollection(Path dir) {
+         file = dir.resolve("students.json");
+         this.resetFromJsonFile();
+      }
+
+      public boolean resetFromJsonFile() {
+         boolean ret = true;
+         try{
+            students.clear();
+            FileInputStream is = new FileInputStream(file.toFile());
+            JSONObject studentMap = new JSONObject(new JSONTokener(is));
+            Iterator<String> it = studentMap.keys();
+            while (it.hasNext()){
+               String mType = it.next();
+               JSONObject studentJson = studentMap.optJSONObject(mType);
+               Student stud = new Student(studentJson);
+               students.put(stud.name, stud);
+            }
+            is.close();
+         }catch (Exception ex){
+            ret = false;
+         }
+         return ret;
+      }
+
+      public boolean saveToJsonFile() {
+         boolean ret = true;
+         try {
+            JSONObject obj = new JSONObject();
+            for (Enumeration<String> e = students.keys(); e.hasMoreElements();){
+               Student aStud = students.get(e.nextElement());
+               obj.put(aStud.name,aStud.toJson());
+            }
+            PrintWriter out = new PrintWriter(file.toFile());
+            out.println(obj.toString(2));
+            out.close();
+         }catch(Exception ex){
+            ret = false;
+         }
+         return ret;
+      }
+
+      public boolean add(Student aStud) {
+         boolean ret = true;
+         try{
+            students.put(aStud.name,aStud);
+         }catch(Exception ex){
+            ret = false;
+         }
+         return ret;
+      }
+
+      public boolean remove(String aName) {
+         return ((students.remove(aName)==null)?false:true);
+      }
+
+      public String[] getNames() {
+         String[] ret = {};
+         if(students.size()>0){
+            ret = students.keySet().toArray(new String[0]);
+         }
+         return ret;
+      }
+
+      public String getNameById(int id) {
+         String ret = "unknown";
+         String[] keys = students.keySet().toArray(new String[0]);
+         for (int i=0; i< keys.length; i++){
+            Student aStud = students.get(keys[i]);
+            if (aStud.studentid==id){
+               ret = aStud.name;
+               break;
+            }
+         }
+         return ret;
+      }
+
+      public Student get(String aName) {
+         Student ret = new Student("unknown",0,new String[]{"empty"});
+         Student aStud = students.get(aName);
+         if (aStud != null) {
+            ret = aStud;
+         }
+         return ret;
+      }
+
+      public String[] getNamesByCourse(String course) {
+         Vector<String> names = new Vector<String>();
+         for (Student aStud : students.values()){
+            for (String taken : aStud.takes){
+               if (taken.equals(course)){
+                  names.add(aStud.name);
+                  break;
+               }
+            }
+         }
+         return names.toArray(new String[0]);
+      }
+
+      public String[] getNamesPage(String afterName, int limit) {
+         String[] names = getNames();
+         Arrays.sort(names);
+         int from = 0;
+         while (afterName != null && from < names.length &&
+                names[from].compareTo(afterName) <= 0){
+            from++;
+         }
+         return Arrays.copyOfRange(names, from,
+                                   Math.min(names.length, from + Math.max(0, limit)));
+      }
+
+      public void streamNames(Consumer<String> action) {
+         for (String aName : getNames()){
+            action.accept(aName);
+         }
+      }
+   }
+
+   /**
+    * Write a students.json that a collection in dir loads, so the setup does
+    * not go through add.
+    */
+   private static void writeStudents(Path dir, int students)
+      throws Exception {
+      PrintWriter out = new PrintWriter(dir.resolve("students.json").toFile());
+      out.println("{");
+      for (int i=0; i<students; i++){
+         Student aStud = new Student("Student"+i, i,
+                                     new String[]{"Ser321","Ser"+(i%50)});
+         out.print("\""+aStud.name+"\":"+aStud.toJsonString());
+         out.println((i < students-1) ? "," : "");
+      }
+      out.println("}");
+      out.close();
+   }
+
+   private static void delete(Path dir) {
+      File[] files = dir.toFile().listFiles();
+      if (files != null) {
+         for (File f : files){
+            f.delete();
+         }
+      }
+      dir.toFile().delete();
+   }
+
+   private static double run(final StudentCollection lib, int threads,
+                             long millis, final int students,
+                             final int addPercent) throws Exception {
+      final AtomicLong ops = new AtomicLong();
+      final CountDownLatch start = new CountDownLatch(1);
+      final long[] stopAt = new long[1];
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++){
+         workers[t] = new Thread(() -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            long count = 0;
+            try{
+               start.await();
+            }catch(InterruptedException ex){
+               return;
+            }
+            while (System.nanoTime() < stopAt[0]) {
+               int op = rnd.nextInt(100);
+               int which = rnd.nextInt(students);
+               if (op < getPercent) {
+                  lib.get("Student"+which);
+               } else if (op < getPercent + addPercent) {
+                  lib.add(new Student("Student"+which, which,
+                                      new String[]{"Ser321","Ser"+(which%50)}));
+               } else {
+                  lib.getNames();
+               }
+               count++;
+            }
+            ops.addAndGet(count);
+         });
+         workers[t].start();
+      }
+      stopAt[0] = System.nanoTime() + millis * 1000000L;
+      start.countDown();
+      for (Thread w : workers){
+         w.join();
+      }
+      return ops.get() * 1000.0 / millis;
+   }
+
+   public static void main(String args[]) throws Exception {
+      int maxThreads = Runtime.getRuntime().availableProcessors();
+      int seconds = 3;
+      int students = 10000;
+      if (args.length >= 1) maxThreads = Integer.parseInt(args[0]);
+      if (args.length >= 2) seconds = Integer.parseInt(args[1]);
+      if (args.length >= 3) students = Integer.parseInt(args[2]);
+      System.out.println(getPercent+"% get, then "+addPercent+"% add (write mix) or "+
+                         "none (read mix), the rest getNames over "+
+                         students+" students, "+seconds+"s per run");
+      System.out.println("threads  mix      hashtable (ops/s)    striped (ops/s)");
+      for (int threads=1; threads<=maxThreads; threads*=2){
+         for (int adds : new int[]{0, addPercent}){
+            Path dir = Files.createTempDirectory("students");
+            writeStudents(dir, students);
+            StudentCollection baseline = new HashtableStudentCollection(dir);
+            StudentCollection striped = new StudentCollectionImpl(dir);
+            // short warm up so both are measured with compiled code
+            run(baseline, threads, 500, students, adds);
+            run(striped, threads, 500, students, adds);
+            double base = run(baseline, threads, seconds*1000L, students, adds);
+            double fast = run(striped, threads, seconds*1000L, students, adds);
+            System.out.println(String.format("%7d  %-5s %19.0f %18.0f", threads,
+                                             adds == 0 ? "read" : "write",
+                                             base, fast));
+            delete(dir);
+         }
+      }
+   }
+}
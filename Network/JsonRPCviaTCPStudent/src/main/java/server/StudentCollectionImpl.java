@@ -1,17 +1,18 @@
 package server;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.PrintWriter;
-import java.util.Vector;
-import java.util.Enumeration;
-
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.io.IOException;
 
@@ -19,6 +20,24 @@ import java.io.IOException;
  * Purpose: This class is part of an example developed to demonstrate distributed
  * and mobile apps connecting to a JsonRPC server where the client and server
  * communicate using TCP/IP stream-based sockets.
+ * Besides the students by name the collection keeps two indexes: studentid
+ * to name, so getNameById does not scan all students, and course to the
+ * names of the students taking it for getNamesByCourse. Studentids are
+ * expected to be unique. A sorted set of the names supports paging through
+ * them with a cursor and streaming them without copying.
+ * The students are kept in a ConcurrentHashMap so the server threads can
+ * read them without contending on a single monitor. Students are immutable,
+ * so get hands out the stored instance without copying it. Changes lock
+ * one of several stripes chosen by the student name, which keeps the map
+ * and the indexes consistent for that name while changes to other names
+ * proceed in parallel. getNames, saveToJsonFile and resetFromJsonFile lock
+ * all stripes, so they see (or produce) a consistent snapshot.
+ * Changes are made durable through a StudentJournal: add and remove append
+ * to a write-ahead log and return once it is on disk, so saveToJsonFile only
+ * has to force what is not yet written. When the log holds more records
+ * than there are students, a background thread compacts it into a new
+ * snapshot. resetFromJsonFile recovers the last saved state: the snapshot
+ * (initially students.json) plus the log.
  *
  * @author Tim Lindquist
  * @version April 2020
@@ -26,18 +45,52 @@ import java.io.IOException;
  **/
 class StudentCollectionImpl extends Object implements StudentCollection{
 
-   public Hashtable<String,Student> students;
+   public ConcurrentHashMap<String,Student> students;
+   private static final int stripeCount = 16;
+   private ReentrantLock[] nameLocks;
+   private IntKeyMap<String>[] namesById;
+   private ConcurrentHashMap<String,Set<String>> namesByCourse;
+   private ConcurrentSkipListSet<String> sortedNames;
    private static final boolean debugOn = false;
    private static final String studentJsonFileName = "students.json";
+   private static final String journalBaseName = "students";
+   // do not compact small logs, a snapshot would save little
+   private static final long compactMinRecords = 10000;
+   private StudentJournal journal;
+   private AtomicLong recordsSinceSnapshot = new AtomicLong();
+   private AtomicBoolean compacting = new AtomicBoolean(false);
+   private ExecutorService compactor;
 
    public StudentCollectionImpl() {
+      this(Paths.get("."));
+   }
+
+   /**
+    * @param dir directory holding students.json and the snapshot and log
+    */
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   StudentCollectionImpl(Path dir) {
       debug("creating a new student collection");
-      students = new Hashtable<String,Student>();
-      try{
-         this.resetFromJsonFile();
-      }catch(Exception ex){
-         System.out.println("error resetting from students json file"+
-                            ex.getMessage());
+      students = new ConcurrentHashMap<String,Student>();
+      nameLocks = new ReentrantLock[stripeCount];
+      namesById = new IntKeyMap[stripeCount];
+      for (int i=0; i<stripeCount; i++){
+         nameLocks[i] = new ReentrantLock();
+         namesById[i] = new IntKeyMap<String>();
+      }
+      namesByCourse = new ConcurrentHashMap<String,Set<String>>();
+      sortedNames = new ConcurrentSkipListSet<String>();
+      journal = new StudentJournal(dir, journalBaseName,
+                                   dir.resolve(studentJsonFileName));
+      compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "student snapshot");
+            t.setDaemon(true);
+            return t;
+         });
+      // serving a part of the students would hide the changes that are lost
+      if (!this.resetFromJsonFile()) {
+         throw new IllegalStateException("could not recover the students in "+
+                                         dir.toAbsolutePath());
       }
    }
 
@@ -46,53 +99,182 @@ class StudentCollectionImpl extends Object implements StudentCollection{
          System.out.println("debug: "+message);
    }
 
+   private static int stripe(int hash) {
+      return ((hash ^ (hash >>> 16)) & 0x7fffffff) % stripeCount;
+   }
+
+   private ReentrantLock lockFor(String aName) {
+      return nameLocks[stripe(aName.hashCode())];
+   }
+
+   private void lockAll() {
+      for (int i=0; i<stripeCount; i++){
+         nameLocks[i].lock();
+      }
+   }
+
+   private void unlockAll() {
+      for (int i=stripeCount-1; i>=0; i--){
+         nameLocks[i].unlock();
+      }
+   }
+
+   // called with the name stripe of aStud locked
+   private void index(Student aStud) {
+      IntKeyMap<String> ids = namesById[stripe(aStud.studentid)];
+      synchronized (ids) {
+         ids.put(aStud.studentid, aStud.name);
+      }
+      for (String course : aStud.takes){
+         namesByCourse.compute(course, (c, names) -> {
+               if (names == null) {
+                  names = ConcurrentHashMap.newKeySet();
+               }
+               names.add(aStud.name);
+               return names;
+            });
+      }
+   }
+
+   // called with the name stripe of aStud locked
+   private void unindex(Student aStud) {
+      IntKeyMap<String> ids = namesById[stripe(aStud.studentid)];
+      synchronized (ids) {
+         if (aStud.name.equals(ids.get(aStud.studentid))) {
+            ids.remove(aStud.studentid);
+         }
+      }
+      for (String course : aStud.takes){
+         namesByCourse.computeIfPresent(course, (c, names) -> {
+               names.remove(aStud.name);
+               return names.isEmpty() ? null : names;
+            });
+      }
+   }
+
+   // called with the name stripe of aStud locked
+   private void put(Student aStud) {
+      Student old = students.put(aStud.name, aStud);
+      if (old != null) {
+         unindex(old);
+      } else {
+         sortedNames.add(aStud.name);
+      }
+      index(aStud);
+   }
+
+   // called with the name stripe of aName locked
+   private Student delete(String aName) {
+      Student old = students.remove(aName);
+      if (old != null) {
+         unindex(old);
+         sortedNames.remove(aName);
+      }
+      return old;
+   }
+
+   // called with all stripes locked
+   private void clear() {
+      students.clear();
+      for (int i=0; i<stripeCount; i++){
+         synchronized (namesById[i]) {
+            namesById[i].clear();
+         }
+      }
+      namesByCourse.clear();
+      sortedNames.clear();
+   }
+
+   /**
+    * If recovery fails the collection is left empty and refuses changes,
+    * rather than serving the students read up to the failure.
+    */
    public boolean resetFromJsonFile() {
       boolean ret = true;
+      lockAll();
       try{
-         students.clear();
-         String fileName = studentJsonFileName;
-         File f = new File(fileName);
-         FileInputStream is = new FileInputStream(f);
-         JSONObject studentMap = new JSONObject(new JSONTokener(is));
-         Iterator<String> it = studentMap.keys();
-         while (it.hasNext()){
-            String mType = it.next();
-            JSONObject studentJson = studentMap.optJSONObject(mType);
-            Student stud = new Student(studentJson);
-            students.put(stud.name, stud);
-            debug("added "+stud.name+" : "+stud.toJsonString()+
-                  "\nstudents.size() is: " + students.size());
-         }
+         clear();
+         long replayed = journal.recover(new StudentJournal.Replay() {
+               public void add(Student stud) { put(stud); }
+               public void remove(String aName) { delete(aName); }
+            });
+         recordsSinceSnapshot.set(replayed);
+         debug("recovered "+students.size()+" students replaying "+
+               replayed+" log records");
       }catch (Exception ex){
          System.out.println("Exception reading json file: "+ex.getMessage());
+         clear();
          ret = false;
+      }finally{
+         unlockAll();
+      }
+      if (ret) {
+         compactIfNeeded(0);
       }
       return ret;
    }
 
+   /**
+    * All changes are already in the write-ahead log, so saving only forces
+    * the records that are not on disk yet.
+    */
    public boolean saveToJsonFile() {
       boolean ret = true;
       try {
-         String jsonStr;
-         JSONObject obj = new JSONObject();
-         for (Enumeration<String> e = students.keys(); e.hasMoreElements();){
-            Student aStud = students.get((String)e.nextElement());
-            obj.put(aStud.name,aStud.toJson());
-         }
-         PrintWriter out = new PrintWriter(studentJsonFileName);
-         out.println(obj.toString(2));
-         out.close();
+         journal.sync();
       }catch(Exception ex){
+         System.out.println("Exception saving students: "+ex.getMessage());
          ret = false;
       }
       return ret;
    }
+
+   private void compactIfNeeded(long newRecords) {
+      long records = recordsSinceSnapshot.addAndGet(newRecords);
+      if (records > Math.max(compactMinRecords, students.size()) &&
+          compacting.compareAndSet(false, true)) {
+         compactor.execute(this::compact);
+      }
+   }
+
+   private void compact() {
+      try{
+         Student[] snapshot;
+         int covered;
+         // no change can be between the snapshot and the log switch
+         lockAll();
+         try{
+            snapshot = students.values().toArray(new Student[0]);
+            covered = journal.rotate();
+            recordsSinceSnapshot.set(0);
+         }finally{
+            unlockAll();
+         }
+         journal.writeSnapshot(snapshot, covered);
+      }catch(Exception ex){
+         System.out.println("Exception writing students snapshot: "+
+                            ex.getMessage());
+      }finally{
+         compacting.set(false);
+      }
+   }
    
    public boolean add(Student aStud) {
       boolean ret = true;
       debug("adding student named: "+((aStud==null)?"unknown":aStud.name));
       try{
-         students.put(aStud.name,aStud);
+         long seq;
+         ReentrantLock lock = lockFor(aStud.name);
+         lock.lock();
+         try{
+            // write ahead, so the log order matches the order of changes
+            seq = journal.logAdd(aStud);
+            put(aStud);
+         }finally{
+            lock.unlock();
+         }
+         journal.commit(seq);
+         compactIfNeeded(1);
       }catch(Exception ex){
          ret = false;
       }
@@ -101,27 +283,79 @@ class StudentCollectionImpl extends Object implements StudentCollection{
 
    public boolean remove(String aName) {
       debug("removing student named: "+aName);
-      return ((students.remove(aName)==null)?false:true);
+      Student old = null;
+      long seq = 0;
+      ReentrantLock lock = lockFor(aName);
+      lock.lock();
+      try{
+         if (students.containsKey(aName)) {
+            seq = journal.logRemove(aName);
+            old = delete(aName);
+         }
+      }catch(IOException ex){
+         System.out.println("Exception logging remove: "+ex.getMessage());
+      }finally{
+         lock.unlock();
+      }
+      if (old != null) {
+         try{
+            journal.commit(seq);
+            compactIfNeeded(1);
+         }catch(IOException ex){
+            System.out.println("Exception logging remove: "+ex.getMessage());
+            old = null;
+         }
+      }
+      return ((old==null)?false:true);
    }
 
    public String[] getNames() {
       String[] ret = {};
       debug("getting "+students.size()+" student names.");
-      if(students.size()>0){
-         ret = (String[])(students.keySet()).toArray(new String[0]);
+      lockAll();
+      try{
+         ret = students.keySet().toArray(new String[0]);
+      }finally{
+         unlockAll();
       }
       return ret;
    }
    
+   public String[] getNamesPage(String afterName, int limit) {
+      ArrayList<String> ret = new ArrayList<String>(Math.max(0, Math.min(limit, 1024)));
+      Iterator<String> it = (afterName == null || afterName.isEmpty())
+         ? sortedNames.iterator()
+         : sortedNames.tailSet(afterName, false).iterator();
+      while (ret.size() < limit && it.hasNext()){
+         ret.add(it.next());
+      }
+      return ret.toArray(new String[0]);
+   }
+
+   /**
+    * Iterates the sorted names while other threads may change them, so
+    * names added or removed during the iteration may or may not be seen.
+    */
+   public void streamNames(Consumer<String> action) {
+      for (String aName : sortedNames){
+         action.accept(aName);
+      }
+   }
+
    public String getNameById(int id) {
-      String ret = "unknown";
-      String[] keys = (String[])(students.keySet()).toArray(new String[0]);
-      for (int i=0; i< keys.length; i++){
-         Student aStud = students.get(keys[i]);
-         if (aStud.studentid==id){
-            ret = aStud.name;
-            break;
-         }
+      String ret;
+      IntKeyMap<String> ids = namesById[stripe(id)];
+      synchronized (ids) {
+         ret = ids.get(id);
+      }
+      return (ret == null) ? "unknown" : ret;
+   }
+
+   public String[] getNamesByCourse(String course) {
+      String[] ret = {};
+      Set<String> names = namesByCourse.get(course);
+      if (names != null) {
+         ret = names.toArray(new String[0]);
       }
       return ret;
    }
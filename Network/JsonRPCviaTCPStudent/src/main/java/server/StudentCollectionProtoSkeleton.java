@@ -0,0 +1,107 @@
+package server;
+
+import java.util.*;
+import buffers.StudentProtos.Names;
+import buffers.StudentProtos.Request;
+import buffers.StudentProtos.Response;
+import buffers.StudentProtos.StudentMsg;
+import buffers.StudentProtos.Value;
+
+/**
+ * Purpose: server skeleton for the protobuf encoding of the student
+ * service (see src/main/proto/student.proto). It offers the same methods
+ * as StudentCollectionSkeleton through a dispatch table of typed handlers,
+ * but parameters and results are protobuf Values instead of JSON, so
+ * students are converted field by field without an intermediate JSONObject.
+ * streamNames and subscribe are only available with JSON; protobuf clients
+ * page through the names with getNamesPage instead.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+public class StudentCollectionProtoSkeleton extends Object {
+
+   private static final boolean debugOn = false;
+   StudentCollection studLib;
+
+   public StudentCollectionProtoSkeleton (StudentCollection studLib){
+      this.studLib = studLib;
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   public Response callMethod(Request theCall){
+      Response.Builder result = Response.newBuilder().setId(theCall.getId());
+      Handler handler = methods.get(theCall.getMethod());
+      if (handler == null) {
+         debug("Unable to match method: "+theCall.getMethod());
+         return result.setError(error(-32601, "Method not found")).build();
+      }
+      try{
+         result.setResult(handler.call(studLib, theCall.getParamsList()));
+      }catch(Exception ex){
+         System.out.println("exception in callMethod: "+ex.getMessage());
+         result.setError(error(-32602, "Invalid params"));
+      }
+      return result.build();
+   }
+
+   private static buffers.StudentProtos.Error error(int code, String message){
+      return buffers.StudentProtos.Error.newBuilder()
+         .setCode(code).setMessage(message).build();
+   }
+
+   /**
+    * A typed handler for one method of the dispatch table.
+    */
+   interface Handler {
+      Value call(StudentCollection lib, List<Value> params) throws Exception;
+   }
+
+   // dispatch table from method name to handler, built once
+   private static final Map<String,Handler> methods = new HashMap<String,Handler>();
+   static {
+      methods.put("saveToJsonFile", (lib, params) -> flag(lib.saveToJsonFile()));
+      methods.put("resetFromJsonFile", (lib, params) -> flag(lib.resetFromJsonFile()));
+      methods.put("add",
+                  (lib, params) -> flag(lib.add(fromProto(params.get(0).getStudent()))));
+      methods.put("remove", (lib, params) -> flag(lib.remove(params.get(0).getText())));
+      methods.put("get", (lib, params) -> Value.newBuilder()
+                  .setStudent(toProto(lib.get(params.get(0).getText()))).build());
+      methods.put("getNameById", (lib, params) -> Value.newBuilder()
+                  .setText(lib.getNameById(params.get(0).getNumber())).build());
+      methods.put("getNames", (lib, params) -> names(lib.getNames()));
+      methods.put("getNamesByCourse",
+                  (lib, params) -> names(lib.getNamesByCourse(params.get(0).getText())));
+      methods.put("getNamesPage", (lib, params) -> {
+            Value after = params.get(0);
+            return names(lib.getNamesPage(
+                            after.hasText() ? after.getText() : null,
+                            params.get(1).getNumber()));
+         });
+   }
+
+   private static Value flag(boolean value){
+      return Value.newBuilder().setFlag(value).build();
+   }
+
+   private static Value names(String[] values){
+      return Value.newBuilder()
+         .setNames(Names.newBuilder().addAllName(Arrays.asList(values))).build();
+   }
+
+   public static StudentMsg toProto(Student stud){
+      StudentMsg.Builder msg = StudentMsg.newBuilder().setStudentid(stud.studentid);
+      if (stud.name != null) {
+         msg.setName(stud.name);
+      }
+      return msg.addAllTakes(stud.takes).build();
+   }
+
+   public static Student fromProto(StudentMsg msg){
+      return new Student(msg.getName(), msg.getStudentid(),
+                         msg.getTakesList().toArray(new String[0]));
+   }
+}
@@ -1,86 +1,312 @@
-package server;
-
-import java.net.*;
-import java.io.*;
-import java.util.*;
-import org.json.JSONObject;
-import org.json.JSONArray;
-
-/**
- * A class for client-server connections with a threaded server.
- * The student collection server creates a server socket.
- * When a client request arrives, which should be a JsonRPC request, a new
- * thread is created to service the call and create the appropriate response.
- * Byte arrays are used for communication to support multiple langs.
- *
- * @author Tim Lindquist ASU Polytechnic Department of Engineering
- * @version April 2020
- */
-public class StudentCollectionSkeleton extends Object {
-
-   private static final boolean debugOn = false;
-   StudentCollection studLib;
-
-   public StudentCollectionSkeleton (StudentCollection studLib){
-      this.studLib = studLib;
-   }
-
-   private void debug(String message) {
-      if (debugOn)
-         System.out.println("debug: "+message);
-   }
-
-   public String callMethod(String request){
-      JSONObject result = new JSONObject();
-      try{
-         JSONObject theCall = new JSONObject(request);
-         debug("Request is: "+theCall.toString());
-         String method = theCall.getString("method");
-         int id = theCall.getInt("id");
-         JSONArray params = null;
-         if(!theCall.isNull("params")){
-            params = theCall.getJSONArray("params");
-         }
-         result.put("id",id);
-         result.put("jsonrpc","2.0");
-         if(method.equals("add")){
-            JSONObject studJson = params.getJSONObject(0);
-            Student studToAdd = new Student(studJson);
-            debug("adding stud: "+studToAdd.toJsonString());
-            studLib.add(studToAdd);
-            result.put("result",true);
-         }else if(method.equals("remove")){
-            String studName = params.getString(0);
-            debug("removing student named "+studName);
-            studLib.remove(studName);
-            result.put("result",true);
-         }else if(method.equals("getNameById")){
-            int studNum = params.getInt(0);
-            debug("getNameById for student number "+studNum);
-            String name = studLib.getNameById(studNum);
-            result.put("result",name);
-         }else if(method.equals("get")){
-            String studName = params.getString(0);
-            Student stud = studLib.get(studName);
-            JSONObject studJson = stud.toJson();
-            debug("get request found: "+studJson.toString());
-            result.put("result",studJson);
-         }else if(method.equals("getNames")){
-            String[] names = studLib.getNames();
-            JSONArray resArr = new JSONArray();
-            for (int i=0; i<names.length; i++){
-               resArr.put(names[i]);
-            }
-            debug("getNames request found: "+resArr.toString());
-            result.put("result",resArr);
-         }else{
-            debug("Unable to match method: "+method+". Returning 0.");
-            result.put("result",0.0);
-         }
-      }catch(Exception ex){
-         System.out.println("exception in callMethod: "+ex.getMessage());
-      }
-      return result.toString();
-   }
-}
-
+package server;
+
+import java.net.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.json.JSONObject;
+import org.json.JSONArray;
+
+/**
+ * A class for client-server connections with a threaded server.
+ * The student collection server creates a server socket.
+ * When a client request arrives, which should be a JsonRPC request, a new
+ * thread is created to service the call and create the appropriate response.
+ * Byte arrays are used for communication to support multiple langs.
+ * Method names are looked up in a dispatch table of typed handlers that
+ * decode their own parameters, so adding a method means registering one
+ * more handler.
+ *
+ * @author Tim Lindquist ASU Polytechnic Department of Engineering
+ * @version April 2020
+ */
+public class StudentCollectionSkeleton extends Object {
+
+   private static final boolean debugOn = false;
+   StudentCollection studLib;
+   ExecutorService workers;
+
+   public StudentCollectionSkeleton (StudentCollection studLib){
+      this(studLib, null);
+   }
+
+   /**
+    * @param studLib the collection the calls are executed on
+    * @param workers pool used to execute the calls of a batch request in
+    *        parallel, or null to execute them one after the other
+    */
+   public StudentCollectionSkeleton (StudentCollection studLib,
+                                     ExecutorService workers){
+      this.studLib = studLib;
+      this.workers = workers;
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   public String callMethod(String request){
+      JSONObject result = new JSONObject();
+      try{
+         result = callMethod(new JSONObject(request));
+      }catch(Exception ex){
+         System.out.println("exception in callMethod: "+ex.getMessage());
+      }
+      return result.toString();
+   }
+
+   /**
+    * Execute a JsonRPC 2.0 batch, an array of call objects sent in one
+    * message. The calls are independent of each other so they are executed
+    * in parallel on the worker pool, in no particular order, but the
+    * responses are returned in the order of the calls. Calls without an id
+    * are notifications, they are executed but get no response.
+    * @param calls the array of JsonRPC request objects
+    * @return the array of JsonRPC response objects, a single error
+    *         response if the batch is empty, or null if all the calls
+    *         are notifications
+    */
+   public Object callBatch(JSONArray calls){
+      if (calls.length() == 0) {
+         return errorResponse(null, -32600, "Invalid Request");
+      }
+      JSONArray results = new JSONArray();
+      if (workers == null || calls.length() == 1) {
+         for (int i=0; i<calls.length(); i++){
+            JSONObject aResult = callBatchEntry(calls.opt(i));
+            if (aResult != null) {
+               results.put(aResult);
+            }
+         }
+         return (results.length() == 0) ? null : results;
+      }
+      List<Future<JSONObject>> pending = new ArrayList<Future<JSONObject>>();
+      for (int i=0; i<calls.length(); i++){
+         final Object aCall = calls.opt(i);
+         pending.add(workers.submit(() -> callBatchEntry(aCall)));
+      }
+      for (Future<JSONObject> aResult : pending){
+         try{
+            JSONObject response = aResult.get();
+            if (response != null) {
+               results.put(response);
+            }
+         }catch(Exception ex){
+            System.out.println("exception in callBatch: "+ex.getMessage());
+            results.put(errorResponse(null, -32603, "Internal error"));
+         }
+      }
+      debug("batch of "+calls.length()+" calls done");
+      return (results.length() == 0) ? null : results;
+   }
+
+   // the response to one call of a batch, null for a notification
+   private JSONObject callBatchEntry(Object aCall){
+      if (!(aCall instanceof JSONObject)) {
+         return errorResponse(null, -32600, "Invalid Request");
+      }
+      JSONObject response = callMethod((JSONObject)aCall);
+      return ((JSONObject)aCall).has("id") ? response : null;
+   }
+
+   private JSONObject errorResponse(Object id, int code, String message){
+      JSONObject error = new JSONObject();
+      error.put("code",code);
+      error.put("message",message);
+      JSONObject result = new JSONObject();
+      result.put("jsonrpc","2.0");
+      result.put("error",error);
+      result.put("id",(id == null) ? JSONObject.NULL : id);
+      return result;
+   }
+
+   /**
+    * Execute an already parsed JsonRPC request, so the server can stream
+    * the request from the socket and the response back to it without
+    * converting either to an intermediate String.
+    * @param theCall the JsonRPC request object
+    * @return the JsonRPC response object
+    */
+   public JSONObject callMethod(JSONObject theCall){
+      JSONObject result = new JSONObject();
+      try{
+         if (debugOn) debug("Request is: "+theCall.toString());
+         Object id = theCall.opt("id");
+         Handler handler = methods.get(theCall.optString("method"));
+         if (handler == null) {
+            debug("Unable to match method: "+theCall.optString("method"));
+            return errorResponse(id, -32601, "Method not found");
+         }
+         Object value;
+         try{
+            value = handler.call(studLib, theCall.optJSONArray("params"));
+         }catch(Exception ex){
+            System.out.println("exception in callMethod: "+ex.getMessage());
+            return errorResponse(id, -32602, "Invalid params");
+         }
+         result.put("id",(id == null) ? JSONObject.NULL : id);
+         result.put("jsonrpc","2.0");
+         result.put("result",toJson(value));
+      }catch(Exception ex){
+         System.out.println("exception in callMethod: "+ex.getMessage());
+      }
+      return result;
+   }
+
+   /**
+    * Execute an already parsed JsonRPC request and write the response
+    * directly to out, without building a JSONObject for it. Large results,
+    * such as the names of all students, go straight into the socket buffer.
+    * @param theCall the JsonRPC request object
+    * @param out where the JsonRPC response is written, not flushed
+    */
+   public void callMethod(JSONObject theCall, Writer out) throws IOException {
+      if (debugOn) debug("Request is: "+theCall.toString());
+      Object id = theCall.opt("id");
+      Handler handler = methods.get(theCall.optString("method"));
+      if (handler == null) {
+         debug("Unable to match method: "+theCall.optString("method"));
+         errorResponse(id, -32601, "Method not found").write(out);
+         return;
+      }
+      Object value;
+      try{
+         value = handler.call(studLib, theCall.optJSONArray("params"));
+      }catch(Exception ex){
+         System.out.println("exception in callMethod: "+ex.getMessage());
+         errorResponse(id, -32602, "Invalid params").write(out);
+         return;
+      }
+      out.write("{\"jsonrpc\":\"2.0\",\"id\":");
+      writeValue((id == null) ? JSONObject.NULL : id, out);
+      out.write(",\"result\":");
+      writeValue(value, out);
+      out.write('}');
+   }
+
+   /**
+    * Execute a request read from the stream and write its response(s).
+    * Most methods answer with one message. streamNames is a server
+    * streaming method: its names are sent in several messages with the
+    * id of the call, each with a result of the form
+    * {"names":[...],"more":true}, the last one with "more":false. Only one
+    * chunk of names is held in memory at a time.
+    * @param theCall the JsonRPC request object
+    * @param stream the connection the response messages are written to
+    */
+   public void callMethod(JSONObject theCall, JsonRpcStream stream)
+      throws IOException {
+      if (!"streamNames".equals(theCall.optString("method"))) {
+         callMethod(theCall, stream.writer());
+         stream.endMessage();
+         return;
+      }
+      Object id = theCall.opt("id");
+      JSONArray params = theCall.optJSONArray("params");
+      int chunkSize = (params == null) ? defaultChunkSize
+                                       : params.optInt(0, defaultChunkSize);
+      if (chunkSize <= 0) chunkSize = defaultChunkSize;
+      final List<String> chunk = new ArrayList<String>(chunkSize);
+      final int size = chunkSize;
+      try{
+         studLib.streamNames(aName -> {
+               chunk.add(aName);
+               if (chunk.size() >= size) {
+                  writeNamesChunk(id, chunk, true, stream);
+                  chunk.clear();
+               }
+            });
+      }catch(UncheckedIOException ex){
+         throw ex.getCause();
+      }
+      writeNamesChunk(id, chunk, false, stream);
+   }
+
+   private static void writeNamesChunk(Object id, List<String> names,
+                                       boolean more, JsonRpcStream stream){
+      try{
+         Writer out = stream.writer();
+         out.write("{\"jsonrpc\":\"2.0\",\"id\":");
+         writeValue((id == null) ? JSONObject.NULL : id, out);
+         out.write(",\"result\":{\"names\":");
+         writeStrings(names, out);
+         out.write(more ? ",\"more\":true}}" : ",\"more\":false}}");
+         stream.endMessage();
+      }catch(IOException ex){
+         throw new UncheckedIOException(ex);
+      }
+   }
+
+   /**
+    * A typed handler for one method of the dispatch table. It decodes its
+    * own parameters and returns a Boolean, String, String[] or Student.
+    */
+   interface Handler {
+      Object call(StudentCollection lib, JSONArray params) throws Exception;
+   }
+
+   private static final int defaultChunkSize = 1000;
+
+   // dispatch table from JsonRPC method name to handler, built once
+   private static final Map<String,Handler> methods = new HashMap<String,Handler>();
+   static {
+      methods.put("saveToJsonFile", (lib, params) -> lib.saveToJsonFile());
+      methods.put("resetFromJsonFile", (lib, params) -> lib.resetFromJsonFile());
+      methods.put("add",
+                  (lib, params) -> lib.add(new Student(params.getJSONObject(0))));
+      methods.put("remove", (lib, params) -> lib.remove(params.getString(0)));
+      methods.put("get", (lib, params) -> lib.get(params.getString(0)));
+      methods.put("getNameById",
+                  (lib, params) -> lib.getNameById(params.getInt(0)));
+      methods.put("getNames", (lib, params) -> lib.getNames());
+      methods.put("getNamesByCourse",
+                  (lib, params) -> lib.getNamesByCourse(params.getString(0)));
+      methods.put("getNamesPage",
+                  (lib, params) -> lib.getNamesPage(params.optString(0, null),
+                                                    params.getInt(1)));
+   }
+
+   private static Object toJson(Object value){
+      if (value instanceof Student) {
+         return ((Student)value).toJson();
+      }
+      if (value instanceof String[]) {
+         return new JSONArray(Arrays.asList((String[])value));
+      }
+      return value;
+   }
+
+   private static void writeValue(Object value, Writer out) throws IOException {
+      if (value instanceof String) {
+         JSONObject.quote((String)value, out);
+      } else if (value instanceof String[]) {
+         writeStrings(Arrays.asList((String[])value), out);
+      } else if (value instanceof Student) {
+         Student stud = (Student)value;
+         out.write("{\"name\":");
+         JSONObject.quote(stud.name, out);
+         out.write(",\"studentid\":");
+         out.write(Integer.toString(stud.studentid));
+         out.write(",\"takes\":");
+         writeStrings(stud.takes, out);
+         out.write('}');
+      } else {
+         // Boolean, Number and JSONObject.NULL
+         out.write(JSONObject.valueToString(value));
+      }
+   }
+
+   private static void writeStrings(List<String> values, Writer out)
+      throws IOException {
+      out.write('[');
+      for (int i=0; i<values.size(); i++){
+         if (i > 0) {
+            out.write(',');
+         }
+         JSONObject.quote(values.get(i), out);
+      }
+      out.write(']');
+   }
+}
@@ -3,10 +3,20 @@ package server;
 import java.net.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONObject;
+import org.json.JSONArray;
+import buffers.StudentProtos.Request;
+import buffers.StudentProtos.Response;
 
 /**
  * A class for TCP client-server connections with a threaded server that
  * implements JsonRPC method calls for a collection of Students.
+ * The encoding is chosen per connection: a client that wants protobuf
+ * (see student.proto) sends a single 0 byte first, which can never start a
+ * JSON message, followed by delimited Request messages. Any other first
+ * byte means JSON.
  *
  * Ser321 Foundations of Distributed Software Systems
  * @author Tim Lindquist Tim.Lindquist@asu.edu
@@ -14,36 +24,41 @@ import java.util.*;
  * @version April 2020
  */
 public class StudentCollectionTCPJsonRPCServer extends Thread {
+   public static final int protobufPreamble = 0;
    private Socket conn;
    private int id;
    private StudentCollectionSkeleton skeleton;
+   private StudentCollectionProtoSkeleton protoSkeleton;
+   private StudentChangeNotifier notifier = null;
 
    public StudentCollectionTCPJsonRPCServer (Socket sock, int id,
                                              StudentCollection stdCol) {
+      this(sock, id, stdCol, null);
+   }
+
+   public StudentCollectionTCPJsonRPCServer (Socket sock, int id,
+                                             StudentCollection stdCol,
+                                             ExecutorService batchWorkers) {
       this.conn = sock;
       this.id = id;
-      skeleton = new StudentCollectionSkeleton(stdCol);
+      skeleton = new StudentCollectionSkeleton(stdCol, batchWorkers);
+      protoSkeleton = new StudentCollectionProtoSkeleton(stdCol);
+      if (stdCol instanceof StudentChangeNotifier) {
+         notifier = (StudentChangeNotifier)stdCol;
+      }
    }
 
    public void run() {
       // setup connection
       try {
          OutputStream outSock = conn.getOutputStream();
-         InputStream inSock = conn.getInputStream();
-         byte clientInput[] = new byte[1024]; // up to 1024 bytes in a message.
-         
-         // receive request
-         int numr = inSock.read(clientInput,0,1024);
-         if (numr != -1) {
-            //System.out.println("read "+numr+" bytes");
-            String request = new String(clientInput,0,numr);
-            System.out.println("request is: "+request);
-
-            // prep and send response
-            String response = skeleton.callMethod(request);
-            byte clientOut[] = response.getBytes();
-	         outSock.write(clientOut,0,clientOut.length);
-            System.out.println("response is: "+response);
+         PushbackInputStream inSock = new PushbackInputStream(conn.getInputStream());
+         int first = inSock.read();
+         if (first == protobufPreamble) {
+            serveProtobuf(inSock, outSock);
+         } else if (first != -1) {
+            inSock.unread(first);
+            serveJson(inSock, outSock);
          }
          inSock.close();
          outSock.close();
@@ -52,10 +67,97 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
          System.out.println("I/O exception occurred for the connection:\n"+e.getMessage());
       }
    }
+
+   private void serveProtobuf(InputStream inSock, OutputStream outSock)
+      throws IOException {
+      OutputStream out = new BufferedOutputStream(outSock);
+      Request request;
+      while ((request = Request.parseDelimitedFrom(inSock)) != null) {
+         System.out.println("protobuf request is: "+request.getMethod()+
+                            " id "+request.getId());
+         Response response = protoSkeleton.callMethod(request);
+         response.writeDelimitedTo(out);
+         out.flush();
+      }
+   }
+
+   private void serveJson(InputStream inSock, OutputStream outSock)
+      throws IOException {
+      // messages are newline delimited json and may be of any size
+      JsonRpcStream stream = new JsonRpcStream(inSock, outSock);
+
+      // receive requests until the client closes the connection
+      Object message;
+      while ((message = stream.readMessage()) != null) {
+         if (message instanceof JSONArray) {
+            // JsonRPC batch, all responses are sent back in one array
+            JSONArray batch = (JSONArray)message;
+            System.out.println("request is a batch of "+batch.length()+
+                               " calls");
+            Object response = skeleton.callBatch(batch);
+            if (response == null) {
+               // only notifications, nothing is sent back
+               continue;
+            }
+            if (response instanceof JSONArray) {
+               stream.write((JSONArray)response);
+            } else {
+               stream.write((JSONObject)response);
+            }
+            System.out.println("response sent for batch of "+
+                               batch.length()+" calls");
+            continue;
+         }
+         JSONObject request = (JSONObject)message;
+         System.out.println("request is: "+request.optString("method")+
+                            " id "+request.opt("id"));
+         if (notifier != null &&
+             "subscribe".equals(request.optString("method"))) {
+            subscribe(stream, request);
+            break;
+         }
+
+         // prep and send response, serialized straight to the socket
+         skeleton.callMethod(request, stream);
+         System.out.println("response sent for id: "+request.opt("id"));
+      }
+   }
     
+   /**
+    * Turn this connection into a channel for change notifications: answer
+    * the subscribe call with true, then only the notifier writes to the
+    * connection until the client closes it or the notifier drops it.
+    */
+   private void subscribe(JsonRpcStream stream, JSONObject request)
+      throws IOException {
+      JSONObject response = new JSONObject();
+      response.put("jsonrpc","2.0");
+      response.put("id",request.opt("id"));
+      response.put("result",true);
+      synchronized (stream) {
+         stream.write(response);
+      }
+      notifier.subscribe(stream, conn);
+      System.out.println("client "+id+" subscribed to changes");
+      try {
+         // nothing more is expected from the client, wait for it to close
+         while (stream.readMessage() != null) {
+         }
+      } catch (IOException e) {
+         // connection closed or broken, either way it is done
+      } finally {
+         notifier.unsubscribe(stream);
+      }
+   }
+
    public static void main (String args[]) {
       Socket sock;
-      StudentCollection studCol = new StudentCollectionImpl();
+      // clients that cache students subscribe to change notifications
+      StudentCollection studCol = new StudentChangeNotifier(
+         new StudentCollectionImpl());
+      // shared by all connections to execute the calls of batch requests
+      ExecutorService batchWorkers = Executors.newFixedThreadPool(
+         Runtime.getRuntime().availableProcessors());
       int id=0;
       try {
          if (args.length != 1) {
@@ -72,7 +174,8 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
             sock = serv.accept();
             System.out.println("Student server connected to client: "+id);
             StudentCollectionTCPJsonRPCServer myServerThread =
-               new StudentCollectionTCPJsonRPCServer(sock,id++,studCol);
+               new StudentCollectionTCPJsonRPCServer(sock,id++,studCol,
+                                                     batchWorkers);
             myServerThread.start();
          }
       } catch(Exception e) {e.printStackTrace();}
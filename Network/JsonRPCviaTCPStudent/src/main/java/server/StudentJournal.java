@@ -0,0 +1,431 @@
+package server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Purpose: durable storage for the student collection as a write-ahead log
+ * plus periodic snapshots, so saving costs time proportional to the changes
+ * rather than to the size of the collection.
+ *
+ * Every add and remove is appended to the current log file as one line of
+ * compact JSON, {"add":{student}} or {"remove":"name"}, before it is applied
+ * in memory. commit waits until a record is on disk. Threads that commit at
+ * the same time share one fsync (group commit): the first one forces the
+ * file while the others wait, and records appended meanwhile are forced by
+ * the next one.
+ *
+ * Log files are numbered, students.log.1, students.log.2, ... A snapshot,
+ * students.snapshot, holds a header line with the number of the last log it
+ * includes followed by one student per line. To compact, the collection
+ * switches to a new log (rotate) while no changes are in progress, writes
+ * the snapshot to a temporary file, renames it over the old one and then
+ * deletes the logs it covers. Recovery loads the snapshot, or the original
+ * students.json if there is none yet, and replays the newer logs in order.
+ * A damaged or torn last record of the newest log, left by a crash while it
+ * was written, is cut off. A damaged record anywhere else means changes
+ * after it would be lost, so recovery fails instead. Replaying a log that
+ * is already part of the snapshot is harmless since add and remove replace
+ * the whole entry for a name.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ */
+class StudentJournal extends Object {
+
+   /**
+    * Receives the students and changes read during recovery.
+    */
+   interface Replay {
+      void add(Student stud);
+      void remove(String aName);
+   }
+
+   private static final boolean debugOn = false;
+   private static final int buffSize = 64 * 1024;
+   private static final boolean windows =
+      System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+   private final Path dir;
+   private final String baseName;
+   private final Path seedFile;
+   private FileChannel log;
+   private ByteBuffer buffer = ByteBuffer.allocate(buffSize);
+   private int generation = 0;
+   private long appendedSeq = 0;
+   private long durableSeq = 0;
+   private boolean syncing = false;
+
+   /**
+    * @param dir directory holding the snapshot and log files
+    * @param baseName prefix of the file names, e.g. students
+    * @param seedFile json map of students loaded when no snapshot exists
+    */
+   StudentJournal(Path dir, String baseName, Path seedFile) {
+      this.dir = dir;
+      this.baseName = baseName;
+      this.seedFile = seedFile;
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   private Path snapshotFile() {
+      return dir.resolve(baseName+".snapshot");
+   }
+
+   private Path logFile(int gen) {
+      return dir.resolve(baseName+".log."+gen);
+   }
+
+   private List<Integer> logGenerations() throws IOException {
+      List<Integer> gens = new ArrayList<Integer>();
+      String prefix = baseName+".log.";
+      File[] files = dir.toFile().listFiles();
+      if (files != null) {
+         for (File f : files){
+            String name = f.getName();
+            if (name.startsWith(prefix)) {
+               try{
+                  gens.add(Integer.parseInt(name.substring(prefix.length())));
+               }catch(NumberFormatException ex){
+                  // not one of our logs
+               }
+            }
+         }
+      }
+      Collections.sort(gens);
+      return gens;
+   }
+
+   /**
+    * Load the last snapshot and replay all newer logs, then continue in the
+    * newest log if it is empty or start a new one for the changes that
+    * follow. Must not run concurrently with appends.
+    * @return the number of log records replayed, which tells the caller
+    *         how much a compaction would save
+    */
+   synchronized long recover(Replay target) throws IOException {
+      closeLog();
+      int covered = 0;
+      Path snap = snapshotFile();
+      if (Files.exists(snap)) {
+         covered = loadSnapshot(snap, target);
+      } else if (seedFile != null && Files.exists(seedFile)) {
+         loadSeed(seedFile, target);
+      }
+      long replayed = 0;
+      List<Integer> gens = logGenerations();
+      int last = gens.isEmpty() ? covered : Math.max(covered, gens.get(gens.size() - 1));
+      for (int gen : gens){
+         if (gen > covered) {
+            replayed += replay(logFile(gen), target, gen == last);
+         }
+      }
+      if (last > covered && Files.size(logFile(last)) == 0) {
+         openLog(last);
+      } else {
+         openLog(last + 1);
+      }
+      debug("recovered snapshot "+covered+" and "+replayed+" log records");
+      return replayed;
+   }
+
+   private int loadSnapshot(Path snap, Replay target) throws IOException {
+      try (BufferedReader in = Files.newBufferedReader(snap, StandardCharsets.UTF_8)) {
+         JSONObject header = new JSONObject(in.readLine());
+         String line;
+         while ((line = in.readLine()) != null){
+            target.add(new Student(new JSONObject(line)));
+         }
+         return header.getInt("generation");
+      }
+   }
+
+   private void loadSeed(Path seed, Replay target) throws IOException {
+      try (Reader in = Files.newBufferedReader(seed, StandardCharsets.UTF_8)) {
+         JSONObject studentMap = new JSONObject(new JSONTokener(in));
+         Iterator<String> it = studentMap.keys();
+         while (it.hasNext()){
+            target.add(new Student(studentMap.getJSONObject(it.next())));
+         }
+      }
+   }
+
+   /**
+    * Apply the records of one log. Only the last record of the newest log
+    * may be damaged or incomplete, it is then cut off the file so the log
+    * is clean again.
+    */
+   private long replay(Path file, Replay target, boolean newest) throws IOException {
+      long count = 0;
+      long good = 0; // bytes up to the end of the last good record
+      long pos = 0;
+      try (InputStream in = new BufferedInputStream(
+              Files.newInputStream(file), buffSize)) {
+         ByteArrayOutputStream line = new ByteArrayOutputStream();
+         int b;
+         while ((b = in.read()) != -1){
+            pos++;
+            if (b != '\n') {
+               line.write(b);
+               continue;
+            }
+            Student added = null;
+            String removed = null;
+            try{
+               JSONObject record = new JSONObject(
+                  new String(line.toByteArray(), StandardCharsets.UTF_8));
+               if (record.has("add")) {
+                  added = new Student(record.getJSONObject("add"));
+               } else {
+                  removed = record.getString("remove");
+               }
+            }catch(JSONException ex){
+               if (newest && in.read() == -1) {
+                  break;
+               }
+               throw new IOException("damaged record "+(count + 1)+" in "+file
+                                     +", changes after it would be lost");
+            }
+            line.reset();
+            if (added != null) {
+               target.add(added);
+            } else {
+               target.remove(removed);
+            }
+            count++;
+            good = pos;
+         }
+         if (line.size() > 0 && !newest) {
+            throw new IOException("incomplete record "+(count + 1)+" in "+file
+                                  +", which is not the newest log");
+         }
+      }
+      if (good < Files.size(file)) {
+         System.out.println("cutting off damaged record at end of "+file);
+         try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(good);
+            ch.force(false);
+         }
+      }
+      return count;
+   }
+
+   private void openLog(int gen) throws IOException {
+      Path file = logFile(gen);
+      boolean created = !Files.exists(file);
+      generation = gen;
+      log = FileChannel.open(file, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE,
+                             StandardOpenOption.APPEND);
+      if (created) {
+         // records forced to a new file are only found again after a
+         // crash if its directory entry is on disk too
+         syncDir();
+      }
+   }
+
+   /*
+    * Force the changes to the directory, i.e. created and renamed files.
+    * Windows does not open directories as files, there this is skipped.
+    */
+   private void syncDir() throws IOException {
+      try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+         ch.force(true);
+      }catch(IOException ex){
+         if (!windows) {
+            throw ex;
+         }
+      }
+   }
+
+   private void closeLog() throws IOException {
+      while (syncing) {
+         try{
+            wait();
+         }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted closing log");
+         }
+      }
+      if (log != null) {
+         writeBuffer();
+         log.force(false);
+         log.close();
+         log = null;
+         durableSeq = appendedSeq;
+      }
+   }
+
+   private void writeBuffer() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()){
+         log.write(buffer);
+      }
+      buffer.clear();
+   }
+
+   private synchronized long append(JSONObject record) throws IOException {
+      if (log == null) {
+         // recover failed or was not called, nothing can be made durable
+         throw new IOException("student log is not open");
+      }
+      byte[] bytes = (record.toString()+"\n").getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > buffer.remaining()) {
+         writeBuffer();
+         if (bytes.length > buffer.capacity()) {
+            log.write(ByteBuffer.wrap(bytes));
+            return ++appendedSeq;
+         }
+      }
+      buffer.put(bytes);
+      return ++appendedSeq;
+   }
+
+   /**
+    * @return sequence number to pass to commit
+    */
+   long logAdd(Student stud) throws IOException {
+      JSONObject record = new JSONObject();
+      record.put("add", stud.toJson());
+      return append(record);
+   }
+
+   /**
+    * @return sequence number to pass to commit
+    */
+   long logRemove(String aName) throws IOException {
+      JSONObject record = new JSONObject();
+      record.put("remove", aName);
+      return append(record);
+   }
+
+   /**
+    * Wait until the record with the given sequence number, and all before
+    * it, are forced to disk.
+    */
+   void commit(long seq) throws IOException {
+      FileChannel toForce;
+      long target;
+      synchronized (this) {
+         while (durableSeq < seq && syncing) {
+            try{
+               wait();
+            }catch(InterruptedException ex){
+               Thread.currentThread().interrupt();
+               throw new InterruptedIOException("interrupted waiting for commit");
+            }
+         }
+         if (durableSeq >= seq) {
+            return;
+         }
+         // become the leader of this group, everything appended so far
+         // is written now and forced below without holding the lock
+         if (log == null) {
+            throw new IOException("student log is not open");
+         }
+         syncing = true;
+         target = appendedSeq;
+         toForce = log;
+         boolean written = false;
+         try{
+            writeBuffer();
+            written = true;
+         }finally{
+            if (!written) {
+               syncing = false;
+               notifyAll();
+            }
+         }
+      }
+      try{
+         toForce.force(false);
+      }finally{
+         synchronized (this) {
+            durableSeq = Math.max(durableSeq, target);
+            syncing = false;
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Force everything appended so far to disk.
+    */
+   void sync() throws IOException {
+      long seq;
+      synchronized (this) {
+         seq = appendedSeq;
+      }
+      commit(seq);
+   }
+
+   /**
+    * Close the current log and continue in a new one. The caller must make
+    * sure no appends happen until its snapshot of the collection is taken.
+    * @return the number of the closed log, which the snapshot covers
+    */
+   synchronized int rotate() throws IOException {
+      int covered = generation;
+      closeLog();
+      openLog(covered + 1);
+      return covered;
+   }
+
+   /**
+    * Write a snapshot that replaces all logs up to and including covered,
+    * then delete those logs. Appends to the current log may continue while
+    * the snapshot is written.
+    */
+   void writeSnapshot(Student[] students, int covered) throws IOException {
+      Path tmp = dir.resolve(baseName+".snapshot.tmp");
+      try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE,
+                                             StandardOpenOption.TRUNCATE_EXISTING);
+           Writer out = new BufferedWriter(new OutputStreamWriter(
+              Channels.newOutputStream(ch),
+              StandardCharsets.UTF_8), buffSize)) {
+         JSONObject header = new JSONObject();
+         header.put("generation", covered);
+         header.put("students", students.length);
+         header.write(out);
+         out.write('\n');
+         for (Student aStud : students){
+            aStud.toJson().write(out);
+            out.write('\n');
+         }
+         out.flush();
+         ch.force(false);
+      }
+      Files.move(tmp, snapshotFile(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+      // the rename has to be on disk before the logs it replaces are gone
+      syncDir();
+      for (int gen : logGenerations()){
+         if (gen <= covered) {
+            Files.deleteIfExists(logFile(gen));
+         }
+      }
+      debug("wrote snapshot of "+students.length+" students covering log "+covered);
+   }
+
+   synchronized void close() throws IOException {
+      closeLog();
+   }
+}
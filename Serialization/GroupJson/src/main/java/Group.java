@@ -2,8 +2,11 @@ import org.json.JSONString;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Vector;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.Serializable;
 
 /**
@@ -27,6 +30,8 @@ public class Group extends Object implements JSONString, Serializable {
 
    private String name; // the name of this group
    private Vector<User> users = new Vector<User>(); // the members of this group
+   // the members by id, users keeps their order and is what gets serialized
+   private transient ConcurrentHashMap<String, User> index = new ConcurrentHashMap<String, User>();
 
    public Group() {
       this.name = "unknown";
@@ -42,20 +47,42 @@ public class Group extends Object implements JSONString, Serializable {
             System.out.print(names[j]+", ");
          }
          System.out.println("");
-         name = obj.getString("name");
-         users = new Vector<User>();
-         for (int i=0; i< names.length; i++){
-            if(!names[i].equals("name")){
-               User aUser = new User((JSONObject)obj.getJSONObject(names[i]));
-               users.add(aUser);
-            }
-         }
+         fromJSONObject(obj);
          in.close();
       }catch (Exception ex) {
          System.out.println("Exception importing from json: "+ex.getMessage());
       }
    }
 
+   /**
+    * A group from the object toJSONString writes, e.g. read from a string.
+    */
+   public Group(JSONObject obj){
+      this.name = "unknown";
+      fromJSONObject(obj);
+   }
+
+   private void fromJSONObject(JSONObject obj){
+      String [] names = JSONObject.getNames(obj);
+      name = obj.getString("name");
+      users = new Vector<User>(names.length);
+      index = new ConcurrentHashMap<String, User>(names.length);
+      for (int i=0; i< names.length; i++){
+         if(!names[i].equals("name")){
+            addNewUser(new User((JSONObject)obj.getJSONObject(names[i])));
+         }
+      }
+   }
+
+   // the index is not serialized, it is built again from the users
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      index = new ConcurrentHashMap<String, User>(users.size());
+      for (User user : users) {
+         index.putIfAbsent(user.getId(), user);
+      }
+   }
+
    public String toJSONString(){
       String ret;
       JSONObject obj = new JSONObject();
@@ -73,6 +100,18 @@ public class Group extends Object implements JSONString, Serializable {
       return name;
    }
 
+   /* the members, in the order they were added, for GroupCodec */
+   Vector<User> getUsers(){
+      return users;
+   }
+
+   /* adds a user unless there already is one with its id */
+   void addNewUser(User user){
+      if (index.putIfAbsent(user.getId(), user) == null) {
+         users.addElement(user);
+      }
+   }
+
    public void setName(String aName){
       name = aName;
    }
@@ -84,13 +123,7 @@ public class Group extends Object implements JSONString, Serializable {
    * @param pwd Is a String specifying password for user.
    */
    public void addUserToGroup(String id, String pwd) {
-      boolean found = false;
-      for (int i = 0; i<users.size(); i++) {
-         if ((users.elementAt(i)).getId().equals(id))
-            found = true;
-      }
-      if (!found)
-         users.addElement(new User(id,pwd));
+      addNewUser(new User(id,pwd));
    }
 
   /**
@@ -116,14 +149,8 @@ public class Group extends Object implements JSONString, Serializable {
    * otherwise return false.
    */
    public boolean isMember(String id, String pwd) {
-      boolean match = false;
-      for (Enumeration e = users.elements() ; e.hasMoreElements() ;) {
-         if(((User)e.nextElement()).check(id,pwd)){
-            match = true;
-            break;
-         }
-      }
-      return match;
+      User user = (id == null) ? null : index.get(id);
+      return user != null && user.check(id,pwd);
    }
 
   /**
@@ -0,0 +1,166 @@
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+
+/**
+ * Purpose:
+ * Compares the size and the encode/decode speed of the ways a Group can be
+ * serialized: json (toJSONString and the JSONObject constructor), Java
+ * serialization, XML with XMLEncoder (the users as java beans, like in the
+ * UserXml example) and GroupCodec with and without its string table.
+ * Users have unique ids and one of 100 passwords.
+ * <p/>
+ * Arguments: [sizes, e.g. 10,1000,1000000] [largest size for xml]
+ * XML is slow, by default it only runs up to 10,000 users.
+ * <p/>
+ * Ser321 Principles of Distributed Software Systems
+ * @file    GroupBenchmark.java
+ */
+public class GroupBenchmark {
+
+   static final String[] formats = {"json", "java", "xml", "codec", "codec+table"};
+
+   /* XMLEncoder needs a public bean with a parameterless constructor */
+   public static class XmlUser {
+      private String userId, userPwd;
+
+      public XmlUser() {
+      }
+
+      public String getUserId() {
+         return userId;
+      }
+
+      public void setUserId(String id) {
+         userId = id;
+      }
+
+      public String getUserPwd() {
+         return userPwd;
+      }
+
+      public void setUserPwd(String pwd) {
+         userPwd = pwd;
+      }
+   }
+
+   static Group makeGroup(int users) {
+      Group group = new Group();
+      group.setName("Benchmark");
+      for (int i = 0; i < users; i++) {
+         group.addNewUser(new User("user" + i, "pwd" + (i % 100)));
+      }
+      return group;
+   }
+
+   static byte[] encode(String format, Group group) throws Exception {
+      switch (format) {
+         case "json":
+            return group.toJSONString().getBytes(StandardCharsets.UTF_8);
+         case "java": {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream os = new ObjectOutputStream(bytes);
+            os.writeObject(group);
+            os.close();
+            return bytes.toByteArray();
+         }
+         case "xml": {
+            XmlUser[] users = new XmlUser[group.getUsers().size()];
+            for (int i = 0; i < users.length; i++) {
+               users[i] = new XmlUser();
+               users[i].setUserId(group.getUsers().get(i).getId());
+               users[i].setUserPwd(group.getUsers().get(i).getPwd());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            XMLEncoder encoder = new XMLEncoder(bytes);
+            encoder.writeObject(group.getName());
+            encoder.writeObject(users);
+            encoder.close();
+            return bytes.toByteArray();
+         }
+         case "codec":
+            return GroupCodec.encode(group, false);
+         default:
+            return GroupCodec.encode(group, true);
+      }
+   }
+
+   static Group decode(String format, byte[] data) throws Exception {
+      switch (format) {
+         case "json":
+            return new Group(new JSONObject(new String(data, StandardCharsets.UTF_8)));
+         case "java": {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            Group group = (Group) in.readObject();
+            in.close();
+            return group;
+         }
+         case "xml": {
+            XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(data));
+            Group group = new Group();
+            group.setName((String) decoder.readObject());
+            for (XmlUser user : (XmlUser[]) decoder.readObject()) {
+               group.addNewUser(new User(user.getUserId(), user.getUserPwd()));
+            }
+            decoder.close();
+            return group;
+         }
+         default:
+            return GroupCodec.decode(data);
+      }
+   }
+
+   interface Step {
+      void run() throws Exception;
+   }
+
+   /* average ms of step, repeated for at least a second after a warmup */
+   static double time(Step step) throws Exception {
+      long warmupEnd = System.nanoTime() + 500_000_000L;
+      int warmups = 0;
+      do {
+         step.run();
+         warmups++;
+      } while (System.nanoTime() < warmupEnd && warmups < 50);
+      int runs = 0;
+      long start = System.nanoTime();
+      long end = start + 1_000_000_000L;
+      do {
+         step.run();
+         runs++;
+      } while (System.nanoTime() < end);
+      return (System.nanoTime() - start) / 1e6 / runs;
+   }
+
+   public static void main(String args[]) throws Exception {
+      String sizes = args.length > 0 ? args[0] : "10,100,1000,10000,100000,1000000";
+      int xmlLimit = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+      System.out.printf("%9s %-12s %14s %12s %12s %14s%n",
+                        "users", "format", "bytes", "encode ms", "decode ms", "users/s (dec)");
+      for (String size : sizes.split(",")) {
+         int users = Integer.parseInt(size.trim());
+         Group group = makeGroup(users);
+         for (String format : formats) {
+            if (format.equals("xml") && users > xmlLimit) {
+               continue;
+            }
+            byte[] data = encode(format, group);
+            Group back = decode(format, data);
+            if (back.getUsers().size() != users || !back.getName().equals(group.getName())
+                || (users > 0 && !back.isMember("user" + (users - 1), "pwd" + ((users - 1) % 100)))) {
+               throw new IllegalStateException(format + " did not return the same group");
+            }
+            double encodeMs = time(() -> encode(format, group));
+            double decodeMs = time(() -> decode(format, data));
+            System.out.printf("%9d %-12s %14d %12.3f %12.3f %14.0f%n",
+                              users, format, data.length, encodeMs, decodeMs, users / decodeMs * 1000);
+         }
+      }
+   }
+}
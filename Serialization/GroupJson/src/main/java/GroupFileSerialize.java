@@ -57,6 +57,18 @@ public class GroupFileSerialize {
       groupAgain.printGroup();
       in.close();
 
+      // and the compact binary format of GroupCodec, with its string table
+      FileOutputStream binOut = new FileOutputStream("admin.bin");
+      GroupCodec.write(admin, true, binOut);
+      binOut.close();
+      System.out.println("Used GroupCodec to write the group to admin.bin");
+
+      FileInputStream binIn = new FileInputStream("admin.bin");
+      Group binAgain = GroupCodec.read(binIn);
+      binIn.close();
+      System.out.println("Done importing the group from admin.bin as:");
+      binAgain.printGroup();
+
     }catch(Exception e) {
        System.out.println("exception: "+e.getMessage());
        e.printStackTrace();
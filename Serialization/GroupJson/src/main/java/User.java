@@ -1,4 +1,6 @@
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import org.json.JSONObject;
 
 /**
@@ -44,8 +46,16 @@ class User extends Object implements Serializable {
       return userId;
    }
 
+   String getPwd() {
+      return userPwd;
+   }
+
+   // MessageDigest.isEqual takes the same time however many bytes match, so
+   // the time of a check does not tell how much of a guessed password is right
    protected boolean check(String id, String pwd) {
-      return (userId.equals(id) && userPwd.equals(pwd));
+      return (userId.equals(id) && pwd != null
+              && MessageDigest.isEqual(pwd.getBytes(StandardCharsets.UTF_8),
+                                       userPwd.getBytes(StandardCharsets.UTF_8)));
    }
 
 }
@@ -0,0 +1,100 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Purpose:
+ * Measures the size and the encode/decode speed of a GroupImpl with Java
+ * serialization (the layout of writeObject, as in admin.ser) and with
+ * GroupCodec, with and without its string table. Users have unique ids and
+ * one of 100 passwords.
+ * <p/>
+ * Arguments: [sizes, e.g. 3,1000,1000000]
+ * <p/>
+ * Ser321 Principles of Distributed Software Systems
+ * @file    GroupBenchmark.java
+ */
+public class GroupBenchmark {
+
+   static final String[] formats = {"java", "codec", "codec+table"};
+
+   static GroupImpl makeGroup(int users) {
+      GroupImpl group = new GroupImpl("Administration");
+      for (int i = 0; i < users; i++) {
+         group.addNewUser(new User("user" + i, "pwd" + (i % 100)));
+      }
+      return group;
+   }
+
+   static byte[] encode(String format, GroupImpl group) throws Exception {
+      switch (format) {
+         case "java": {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream os = new ObjectOutputStream(bytes);
+            os.writeObject(group);
+            os.close();
+            return bytes.toByteArray();
+         }
+         case "codec":
+            return GroupCodec.encode(group, false);
+         default:
+            return GroupCodec.encode(group, true);
+      }
+   }
+
+   static GroupImpl decode(String format, byte[] data) throws Exception {
+      if (format.equals("java")) {
+         ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+         GroupImpl group = (GroupImpl) in.readObject();
+         in.close();
+         return group;
+      }
+      return GroupCodec.decode(data);
+   }
+
+   interface Step {
+      void run() throws Exception;
+   }
+
+   /* average ms of step, repeated for at least a second after a warmup */
+   static double time(Step step) throws Exception {
+      long warmupEnd = System.nanoTime() + 500_000_000L;
+      int warmups = 0;
+      do {
+         step.run();
+         warmups++;
+      } while (System.nanoTime() < warmupEnd && warmups < 50);
+      int runs = 0;
+      long start = System.nanoTime();
+      long end = start + 1_000_000_000L;
+      do {
+         step.run();
+         runs++;
+      } while (System.nanoTime() < end);
+      return (System.nanoTime() - start) / 1e6 / runs;
+   }
+
+   public static void main(String args[]) throws Exception {
+      String sizes = args.length > 0 ? args[0] : "3,1000,100000,1000000";
+
+      System.out.printf("%9s %-12s %14s %12s %12s %14s%n",
+                        "users", "format", "bytes", "encode ms", "decode ms", "users/s (dec)");
+      for (String size : sizes.split(",")) {
+         int users = Integer.parseInt(size.trim());
+         GroupImpl group = makeGroup(users);
+         for (String format : formats) {
+            byte[] data = encode(format, group);
+            GroupImpl back = decode(format, data);
+            if (back.getUsers().size() != users || !back.getName().equals(group.getName())
+                || (users > 0 && !back.isMember("user" + (users - 1), "pwd" + ((users - 1) % 100)))) {
+               throw new IllegalStateException(format + " did not return the same group");
+            }
+            double encodeMs = time(() -> encode(format, group));
+            double decodeMs = time(() -> decode(format, data));
+            System.out.printf("%9d %-12s %14d %12.3f %12.3f %14.0f%n",
+                              users, format, data.length, encodeMs, decodeMs, users / decodeMs * 1000);
+         }
+      }
+   }
+}
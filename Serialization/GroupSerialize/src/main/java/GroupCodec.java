@@ -0,0 +1,200 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Purpose:
+ * A compact binary format for a GroupImpl, next to its Java serialization.
+ * It is the same format as GroupCodec of the GroupJson example. The layout is:
+ * <pre>
+ *   version byte (1), flags byte (1 = string table)
+ *   name, varint number of users, then userId and userPwd of each user
+ * </pre>
+ * Numbers are varints (7 bits per byte, low bits first). A string is its
+ * varint length in bytes followed by its UTF-8 bytes. With the string
+ * table a string is written as a varint reference instead: 0 means a new
+ * string follows and is added to the table, k means the k-th string of
+ * the table, so repeated strings (e.g. shared passwords) take a few bytes.
+ * <p/>
+ * Ser321 Principles of Distributed Software Systems
+ * @file    GroupCodec.java
+ */
+public class GroupCodec {
+
+   static final int version = 1;
+   static final int stringTable = 1;
+
+   /**
+    * The bytes of a group, with the string table if dedup is set.
+    */
+   public static byte[] encode(GroupImpl group, boolean dedup) {
+      Writer out = new Writer(dedup);
+      out.write(version);
+      out.write(dedup ? stringTable : 0);
+      out.writeString(group.getName());
+      out.writeVarint(group.getUsers().size());
+      for (User user : group.getUsers()) {
+         out.writeString(user.getId());
+         out.writeString(user.getPwd());
+      }
+      return out.toByteArray();
+   }
+
+   public static void write(GroupImpl group, boolean dedup, OutputStream out) throws IOException {
+      out.write(encode(group, dedup));
+   }
+
+   public static GroupImpl decode(byte[] bytes) throws IOException {
+      Reader in = new Reader(bytes);
+      if (in.read() != version) {
+         throw new IOException("Unknown group format version");
+      }
+      in.table = (in.read() & stringTable) != 0 ? new ArrayList<String>() : null;
+      GroupImpl group = new GroupImpl(in.readString());
+      int count = in.readVarint();
+      for (int i = 0; i < count; i++) {
+         // a repeated id in damaged or foreign data keeps its first user
+         group.addNewUser(new User(in.readString(), in.readString()));
+      }
+      return group;
+   }
+
+   public static GroupImpl read(InputStream in) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+         bytes.write(buffer, 0, n);
+      }
+      return decode(bytes.toByteArray());
+   }
+
+   /* a growing byte array */
+   private static class Writer {
+      private byte[] bytes = new byte[256];
+      private int size;
+      private final HashMap<String, Integer> table;
+
+      Writer(boolean dedup) {
+         table = dedup ? new HashMap<String, Integer>() : null;
+      }
+
+      private void ensure(int more) {
+         if (size + more > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + more));
+         }
+      }
+
+      void write(int b) {
+         ensure(1);
+         bytes[size++] = (byte) b;
+      }
+
+      void writeVarint(int value) {
+         ensure(5);
+         while ((value & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+         bytes[size++] = (byte) value;
+      }
+
+      void writeString(String s) {
+         if (table != null) {
+            Integer index = table.get(s);
+            if (index != null) {
+               writeVarint(index + 1);
+               return;
+            }
+            table.put(s, table.size());
+            writeVarint(0);
+         }
+         int length = s.length();
+         // ascii strings are copied char by char, others go through the encoder
+         ensure(5 + length);
+         int start = size;
+         writeVarint(length);
+         for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+               size = start;
+               byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+               writeVarint(utf8.length);
+               ensure(utf8.length);
+               System.arraycopy(utf8, 0, bytes, size, utf8.length);
+               size += utf8.length;
+               return;
+            }
+            bytes[size++] = (byte) c;
+         }
+      }
+
+      byte[] toByteArray() {
+         return Arrays.copyOf(bytes, size);
+      }
+   }
+
+   private static class Reader {
+      private final byte[] bytes;
+      private int pos;
+      ArrayList<String> table;
+
+      Reader(byte[] bytes) {
+         this.bytes = bytes;
+      }
+
+      int read() throws IOException {
+         if (pos >= bytes.length) {
+            throw new IOException("Group data ends too early");
+         }
+         return bytes[pos++] & 0xFF;
+      }
+
+      int readVarint() throws IOException {
+         int value = 0;
+         for (int shift = 0; shift < 35; shift += 7) {
+            int b = read();
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+               return value;
+            }
+         }
+         throw new IOException("Malformed varint in group data");
+      }
+
+      String readString() throws IOException {
+         if (table != null) {
+            int ref = readVarint();
+            if (ref > 0) {
+               if (ref > table.size()) {
+                  throw new IOException("Unknown string reference in group data");
+               }
+               return table.get(ref - 1);
+            }
+         }
+         int length = readVarint();
+         if (length < 0 || length > bytes.length - pos) {
+            throw new IOException("Group data ends too early");
+         }
+         boolean ascii = true;
+         for (int i = pos; i < pos + length; i++) {
+            if (bytes[i] < 0) {
+               ascii = false;
+               break;
+            }
+         }
+         // latin-1 decoding of ascii bytes is a plain copy
+         String s = new String(bytes, pos, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+         pos += length;
+         if (table != null) {
+            table.add(s);
+         }
+         return s;
+      }
+   }
+}
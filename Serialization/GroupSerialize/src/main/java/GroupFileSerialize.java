@@ -47,6 +47,20 @@ public class GroupFileSerialize {
         System.out.println((String)e.nextElement());
       }
       in.close();
+
+      // the same group in the compact binary format of GroupCodec
+      FileOutputStream binOut = new FileOutputStream("admin.bin");
+      GroupCodec.write((GroupImpl)admin, true, binOut);
+      binOut.close();
+      System.out.println("Server done exporting the group to admin.bin");
+
+      FileInputStream binIn = new FileInputStream("admin.bin");
+      Group binGroup = GroupCodec.read(binIn);
+      binIn.close();
+      System.out.println("Group "+binGroup.getName()+" read from admin.bin. Includes:");
+      for (Enumeration e = binGroup.getUserNames().elements(); e.hasMoreElements() ;) {
+        System.out.println((String)e.nextElement());
+      }
     }catch(Exception e) {
       e.printStackTrace();
     }
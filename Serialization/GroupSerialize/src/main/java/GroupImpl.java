@@ -1,5 +1,9 @@
 import java.util.Vector;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.io.File;
 import java.io.ObjectOutputStream;
@@ -20,13 +24,69 @@ import java.io.ObjectInputStream;
  */
 public class GroupImpl implements Group, Serializable {
 
+   // the serialVersionUID the default serialization computed for this
+   // class, kept so admin.ser files written before writeObject still load
+   private static final long serialVersionUID = -3163804362796571868L;
+   static final int version = 1;
+
+   // the fields of the default serialized form. writeObject leaves users
+   // null and writes the users after the fields, in the layout of version
+   private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("name", String.class),
+      new ObjectStreamField("users", Vector.class)
+   };
+
    private String name;
    private Vector<User> users = new Vector<User>();
+   // the users by id, users keeps their order for writeObject and saveToFile
+   private transient ConcurrentHashMap<String, User> index = new ConcurrentHashMap<String, User>();
 
    public GroupImpl(String name) {
       this.name = name;
    }
 
+   /*
+    * name, then version, number of users and the fields of each user. The
+    * users are not written as objects, which saves a header and a handle each.
+    */
+   private void writeObject(ObjectOutputStream out) throws IOException {
+      ObjectOutputStream.PutField fields = out.putFields();
+      fields.put("name", name);
+      fields.put("users", null);
+      out.writeFields();
+      out.writeByte(version);
+      out.writeInt(users.size());
+      for (User user : users) {
+         user.writeFields(out);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      ObjectInputStream.GetField fields = in.readFields();
+      name = (String) fields.get("name", null);
+      Vector<User> written = (Vector<User>) fields.get("users", null);
+      users = new Vector<User>();
+      index = new ConcurrentHashMap<String, User>();
+      if (written != null) {
+         // written by the default serialization, the users are objects
+         for (User user : written) {
+            addNewUser(user);
+         }
+         return;
+      }
+      int layout = in.readUnsignedByte();
+      if (layout != 1) {
+         throw new InvalidClassException("GroupImpl", "unknown layout version " + layout);
+      }
+      int count = in.readInt();
+      users.ensureCapacity(count);
+      index = new ConcurrentHashMap<String, User>(count);
+      for (int i = 0; i < count; i++) {
+         addNewUser(User.readFields(in));
+      }
+   }
+
    public void saveToFile(){
       try{
          File outFile = new File("users.ser");
@@ -45,14 +105,20 @@ public class GroupImpl implements Group, Serializable {
       return name;
    }
 
-   public void addUserToGroup(String id, String pwd) {
-      boolean found = false;
-      for (int i = 0; i<users.size(); i++) {
-         if ((users.elementAt(i)).getId().equals(id))
-            found = true;
+   /* the members, in the order they were added, for GroupCodec */
+   Vector<User> getUsers(){
+      return users;
+   }
+
+   /* adds a user unless there already is one with its id */
+   void addNewUser(User user){
+      if (index.putIfAbsent(user.getId(), user) == null) {
+         users.addElement(user);
       }
-      if (!found)
-         users.addElement(new User(id,pwd));
+   }
+
+   public void addUserToGroup(String id, String pwd) {
+      addNewUser(new User(id,pwd));
    }
 
    public Vector<String> getUserNames() {
@@ -64,13 +130,7 @@ public class GroupImpl implements Group, Serializable {
    }
 
    public boolean isMember(String id, String pwd) {
-      boolean match = false;
-      for (Enumeration e = users.elements() ; e.hasMoreElements() ;) {
-         if(((User)e.nextElement()).check(id,pwd)){
-            match = true;
-            break;
-         }
-      }
-      return match;
+      User user = (id == null) ? null : index.get(id);
+      return user != null && user.check(id,pwd);
    }
 }
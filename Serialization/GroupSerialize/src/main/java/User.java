@@ -1,4 +1,9 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 /**
 
@@ -14,6 +19,11 @@ import java.io.Serializable;
  */
 class User implements Serializable {
 
+  // the serialVersionUID the default serialization computed for this class,
+  // kept so the users in old admin.ser and users.ser files still load. The
+  // serialized form is still the default one, userId and userPwd.
+  private static final long serialVersionUID = 24190043438432858L;
+
   private String userId, userPwd;
 
   protected User(String id, String pwd) {
@@ -21,12 +31,30 @@ class User implements Serializable {
     userPwd = pwd;
   }
 
+  /* the fields alone, GroupImpl writes its users this way */
+  void writeFields(DataOutput out) throws IOException {
+    out.writeUTF(userId);
+    out.writeUTF(userPwd);
+  }
+
+  static User readFields(DataInput in) throws IOException {
+    String id = in.readUTF();
+    return new User(id, in.readUTF());
+  }
+
   protected String getId() {
     return userId;
   }
 
+  String getPwd() {
+    return userPwd;
+  }
+
+  // the time of a check does not depend on how much of pwd is right
   protected boolean check(String id, String pwd) {
-    return (userId.equals(id) && userPwd.equals(pwd));
+    return (userId.equals(id) && pwd != null
+            && MessageDigest.isEqual(pwd.getBytes(StandardCharsets.UTF_8),
+                                     userPwd.getBytes(StandardCharsets.UTF_8)));
   }
 }
     
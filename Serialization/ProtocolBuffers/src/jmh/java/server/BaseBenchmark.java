@@ -0,0 +1,87 @@
+package server;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH benchmark of the Base engine for inputs from 10 to 10,000 digits.
+ * convert parses a number and writes it back in the same base, which is the
+ * cost every operation pays; bigIntegerConvert does the same with the String
+ * methods of BigInteger as a baseline. add, multiply and divide run the
+ * operations the server offers.
+ *
+ * run with:
+ * gradle jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  int digits;
+
+  @Param({"2", "10", "16"})
+  int base;
+
+  private final Base engine = new Base();
+  private String num1;
+  private String num2;
+
+  private String randomNumber(Random random, int length) {
+    char[] chars = new char[length];
+    chars[0] = Character.toUpperCase(Character.forDigit(1 + random.nextInt(base - 1), base));
+    for (int i = 1; i < length; i++) {
+      chars[i] = Character.toUpperCase(Character.forDigit(random.nextInt(base), base));
+    }
+    return new String(chars);
+  }
+
+  @Setup
+  public void setup() {
+    Random random = new Random(321);
+    num1 = randomNumber(random, digits);
+    num2 = randomNumber(random, Math.max(1, digits / 2));
+  }
+
+  @Benchmark
+  public String convert() {
+    return engine.convert(num1, base, base);
+  }
+
+  @Benchmark
+  public String bigIntegerConvert() {
+    return new BigInteger(num1, base).toString(base).toUpperCase();
+  }
+
+  @Benchmark
+  public String add() {
+    return engine.add(num1, num2, base);
+  }
+
+  @Benchmark
+  public String multiply() {
+    return engine.multiply(num1, num2, base);
+  }
+
+  @Benchmark
+  public String divide() {
+    return engine.divide(num1, num2, base);
+  }
+}
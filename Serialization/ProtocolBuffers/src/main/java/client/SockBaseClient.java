@@ -10,6 +10,7 @@ import org.json.*;
 
 import buffers.OperationProtos.Operation;
 import buffers.ResponseProtos.Response;
+import buffers.ResponseProtos.Result;
 
 class SockBaseClient {
      
@@ -18,28 +19,39 @@ class SockBaseClient {
         Socket serverSock = null;
         OutputStream out = null;
         InputStream in = null;
-        int i1=0, i2=0;
         int port = 9099; // default port
+        int count = 1; // how often the operations are sent
+        // single: wait for each response, stream: send all operations without
+        // waiting and read the responses meanwhile, batch: one batch operation
+        String mode = "single";
 
-        if (args.length != 3) {
-            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)>");
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file[,json file...])> [count(int)] [mode(single|stream|batch)]");
             System.exit(1);
         }
         String host = args[0];
         try {
             port = Integer.parseInt(args[1]);
+            if (args.length >= 4) {
+                count = Integer.parseInt(args[3]);
+            }
+            if (args.length == 5) {
+                mode = args[4];
+            }
         } catch (NumberFormatException nfe) {
-            System.out.println("[Port] must be integer");
+            System.out.println("[Port|count] must be integer");
             System.exit(2);
         }
-        String filename = args[2];
-        Operation op = null;
-        
-        // read JSON data from the file
-        JSONObject data = null;
+        // several files are sent one after the other over the same connection
+        String[] filenames = args[2].split(",");
+        Operation[] ops = new Operation[filenames.length];
+
+        // read JSON data from the files
         try {
-          data = readJson(filename);
-          op = generateObjectFromPB(data);
+          for (int i = 0; i < filenames.length; i++) {
+            JSONObject data = readJson(filenames[i]);
+            ops[i] = generateObjectFromPB(data);
+          }
         } catch (IOException ex) {
           ex.printStackTrace();
         } catch (JSONException ex) {
@@ -47,18 +59,36 @@ class SockBaseClient {
         }
 
         try {
-            // connect to the server
+            // connect to the server, the connection is used for all operations
             serverSock = new Socket(host, port);
-
-            // write to the server
-            out = serverSock.getOutputStream();
-            op.writeDelimitedTo(out);
-
-            // read from the server
-            in = serverSock.getInputStream();
-            Response response = Response.parseDelimitedFrom(in);
-
-            System.out.println("Result is " + response.getResultString());
+            serverSock.setTcpNoDelay(true);
+            out = new BufferedOutputStream(serverSock.getOutputStream());
+            in = new BufferedInputStream(serverSock.getInputStream());
+
+            long start = System.nanoTime();
+            if (mode.equals("batch")) {
+                sendBatch(ops, count, out, in);
+            } else if (mode.equals("stream")) {
+                sendStream(ops, count, out, in);
+            } else {
+                for (int n = 0; n < count; n++) {
+                    for (Operation op : ops) {
+                        // write to the server
+                        op.writeDelimitedTo(out);
+                        out.flush();
+
+                        // read from the server
+                        Response response = Response.parseDelimitedFrom(in);
+                        if (count == 1) {
+                            System.out.println("Result is " + toText(response.getResult()));
+                        }
+                    }
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            if (count > 1) {
+                System.out.println((count * ops.length) + " operations in " + millis + " ms over one connection (" + mode + ")");
+            }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
@@ -68,6 +98,76 @@ class SockBaseClient {
         }
     }
 
+    /**
+     * All operations go to the server in one Operation with a batch list,
+     * the Response has the results in the same order.
+     */
+    private static void sendBatch(Operation[] ops, int count, OutputStream out, InputStream in) throws IOException {
+        Operation.Builder batch = Operation.newBuilder().setTypedResponse(true);
+        for (int n = 0; n < count; n++) {
+            for (Operation op : ops) {
+                batch.addBatch(op);
+            }
+        }
+        batch.build().writeDelimitedTo(out);
+        out.flush();
+
+        Response response = Response.parseDelimitedFrom(in);
+        if (count == 1) {
+            for (Result result : response.getTypedResultsList()) {
+                System.out.println("Result is " + toText(result));
+            }
+        }
+    }
+
+    /**
+     * A thread writes all operations without waiting for answers while the
+     * responses are read here, they come back in the order of the operations.
+     */
+    private static void sendStream(Operation[] ops, int count, OutputStream out, InputStream in) throws Exception {
+        Thread sender = new Thread(() -> {
+            try {
+                for (int n = 0; n < count; n++) {
+                    for (Operation op : ops) {
+                        op.writeDelimitedTo(out);
+                    }
+                }
+                out.flush();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        sender.start();
+        for (int i = 0; i < count * ops.length; i++) {
+            Response response = Response.parseDelimitedFrom(in);
+            if (response == null) {
+                System.out.println("Server closed the connection after " + i + " responses");
+                break;
+            }
+            if (count == 1) {
+                System.out.println("Result is " + toText(response.getResult()));
+            }
+        }
+        sender.join();
+    }
+
+    /* the server sends a JSON result as UTF-8 bytes, no need to unpack a string */
+    private static String toText(Result result) {
+        switch (result.getValueCase()) {
+            case TEXT:
+                return result.getText();
+            case NUMBER:
+                return (result.getNumber().getNegative() ? "-" : "") + result.getNumber().getDigits()
+                    + " (base " + result.getNumber().getBase() + ")";
+            case JSON:
+                return new JSONObject(result.getJson().toStringUtf8()).toString();
+            case ERROR:
+                return "Error: " + result.getError();
+            default:
+                return "no result";
+        }
+    }
+
     private static JSONObject readJson(String filename) throws IOException, JSONException {
       // read json from build directory, so the getResource is needed
       File file = new File(
@@ -88,7 +188,8 @@ class SockBaseClient {
         .setVal2((String)payload.get("num2"))
         .setBase(header.getInt("base"))
         .setOperationType(getOperationType((String)header.get("operation")))
-        .setResponseType(getResponseType((String)header.get("response")));
+        .setResponseType(getResponseType((String)header.get("response")))
+        .setTypedResponse(true);
       return op.build();
     } 
 
@@ -110,6 +211,8 @@ class SockBaseClient {
         return Operation.ResponseType.JSON;
       if (_type.toLowerCase().equals("string"))
         return Operation.ResponseType.STRING;
+      if (_type.toLowerCase().equals("number"))
+        return Operation.ResponseType.NUMBER;
       else
         throw new java.lang.RuntimeException("Response type not found");
     }
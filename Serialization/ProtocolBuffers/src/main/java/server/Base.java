@@ -1,58 +1,288 @@
 package server;
 
-class Base { 
+import java.math.BigInteger;
 
-  private int convertToInt(char ch) {
-   if(ch >= '0' && ch <= '9')
-      return (int)ch - '0';
-   else
-      return (int)ch - 'A' + 10;
+/*
+ * Arithmetic on numbers written as digit strings in a base from 2 to 36.
+ * Numbers can have any length, they are converted to BigInteger and back.
+ * Digits are looked up in precomputed tables and converted a chunk at a time:
+ * as many digits as fit in a long are handled with plain long arithmetic and
+ * long numbers are split recursively at cached powers of the base, so
+ * converting n digits does not take n BigInteger operations.
+ * Results are in upper case, negative results start with '-'.
+ */
+class Base {
+
+  private static final int minBase = 2;
+  private static final int maxBase = 36;
+
+  /* value of each character as a digit, -1 if it is not a digit */
+  private static final byte[] digitValue = new byte[128];
+  /* character for each digit value */
+  private static final char[] digitChar = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+  /* digits per chunk, base^chunkDigits is the largest power that fits a long */
+  private static final int[] chunkDigits = new int[maxBase + 1];
+
+  /* powers[base][k] = base^(chunkDigits * 2^k), computed when first needed */
+  private static final BigInteger[][] powers = new BigInteger[maxBase + 1][];
+
+  /* digits per int word, wordPower[base] = base^wordDigits fits an int */
+  private static final int[] wordDigits = new int[maxBase + 1];
+  private static final long[] wordPower = new long[maxBase + 1];
+
+  /* below this many digits a number is parsed chunk by chunk instead of split */
+  private static final int splitThreshold = 20;
+  /* numbers up to this many bits are written without splitting them */
+  private static final int smallBits = 640;
+
+  static {
+    java.util.Arrays.fill(digitValue, (byte) -1);
+    for (int i = 0; i < digitChar.length; i++) {
+      digitValue[digitChar[i]] = (byte) i;
+      digitValue[Character.toLowerCase(digitChar[i])] = (byte) i;
+    }
+    for (int base = minBase; base <= maxBase; base++) {
+      long power = base;
+      int digits = 1;
+      while (power <= Long.MAX_VALUE / base) {
+        power *= base;
+        digits++;
+      }
+      chunkDigits[base] = digits;
+      long word = base;
+      digits = 1;
+      while (word * base <= Integer.MAX_VALUE) {
+        word *= base;
+        digits++;
+      }
+      wordDigits[base] = digits;
+      wordPower[base] = word;
+      powers[base] = new BigInteger[] { BigInteger.valueOf(power) };
+    }
   }
-  
-  private char convertToBase(int n) {
-    if (n >= 0 && n <= 9) 
-        return (char)(n + 48); 
-    else
-        return (char)(n - 10 + 65);
+
+  private static void checkBase(int base) {
+    if (base < minBase || base > maxBase) {
+      throw new java.lang.RuntimeException("Base must be between " + minBase + " and " + maxBase + "!");
+    }
   }
 
-  /* convert a number from base-N to base-10 */
-  private int toDecimal(String num, int base) {
-    int len = num.length();
-    int exp = 1;
-    int decimalVal = 0;
+  /* base^(chunkDigits * 2^level) */
+  private static BigInteger power(int base, int level) {
+    BigInteger[] cached = powers[base];
+    // the array is read without locking, so an entry may not be visible yet
+    if (level < cached.length && cached[level] != null) {
+      return cached[level];
+    }
+    synchronized (powers) {
+      cached = powers[base];
+      if (level >= cached.length) {
+        BigInteger[] grown = java.util.Arrays.copyOf(cached, level + 1);
+        for (int k = cached.length; k <= level; k++) {
+          grown[k] = grown[k - 1].multiply(grown[k - 1]);
+        }
+        powers[base] = grown;
+        cached = grown;
+      }
+      return cached[level];
+    }
+  }
+
+  /* value of the digits from..to-1, at most chunkDigits of them */
+  private static long chunkValue(String num, int from, int to, int base) {
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      char ch = num.charAt(i);
+      int digit = (ch < 128) ? digitValue[ch] : -1;
+      if (digit < 0 || digit >= base) {
+        throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
+      }
+      value = value * base + digit;
+    }
+    return value;
+  }
+
+  private static BigInteger parse(String num, int from, int to, int base) {
+    int chunk = chunkDigits[base];
+    int len = to - from;
+    if (len <= chunk) {
+      return BigInteger.valueOf(chunkValue(num, from, to, base));
+    }
+    if (len <= chunk * splitThreshold) {
+      BigInteger chunkPow = powers[base][0];
+      int first = len % chunk == 0 ? chunk : len % chunk;
+      BigInteger value = BigInteger.valueOf(chunkValue(num, from, from + first, base));
+      for (int i = from + first; i < to; i += chunk) {
+        value = value.multiply(chunkPow).add(BigInteger.valueOf(chunkValue(num, i, i + chunk, base)));
+      }
+      return value;
+    }
+    // the low part gets the largest chunkDigits * 2^k digits that leave a high part
+    int level = 0;
+    while (chunk << (level + 1) < len) {
+      level++;
+    }
+    int lowLen = chunk << level;
+    BigInteger high = parse(num, from, to - lowLen, base);
+    BigInteger low = parse(num, to - lowLen, to, base);
+    return high.multiply(power(base, level)).add(low);
+  }
 
-    for(int i = len - 1; i >= 0; i--) {
-      int _tmp = convertToInt(num.charAt(i));
-      if(_tmp >= base) {
-         throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
-       }
-       decimalVal += _tmp * exp;
-       exp *= base;
+  /* convert a number from base-N to a BigInteger */
+  private BigInteger toBigInteger(String num, int base) {
+    checkBase(base);
+    boolean negative = num.startsWith("-");
+    int from = negative ? 1 : 0;
+    if (from == num.length()) {
+      throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
     }
-    return decimalVal;
+    BigInteger value = parse(num, from, num.length(), base);
+    return negative ? value.negate() : value;
   }
 
-  /* convert a number from base-10 to base-N */
-  private String toBaseN(int num, int base) {
-    StringBuilder baseN = new StringBuilder("");
-     while(num > 0) {
-        baseN.append(convertToBase(num % base));
-        num /= base;
-     }
-     return baseN.reverse().toString();
+  /*
+   * Write the digits of 0 <= num < power(base, level + 1) so that they end
+   * before buf[end], level -1 is a single chunk. If pad is set exactly
+   * chunkDigits * 2^(level + 1) digits are written, with leading zeros.
+   * Large numbers are split in halves, the halves are converted as arrays of
+   * 32 bit words. Returns the index of the first digit.
+   */
+  private static int write(BigInteger num, int base, int level, char[] buf, int end, boolean pad) {
+    if (num.bitLength() <= smallBits) {
+      return writeWords(num, base, buf, end, pad ? chunkDigits[base] << (level + 1) : 0);
+    }
+    BigInteger[] highLow = num.divideAndRemainder(power(base, level));
+    int lowStart = write(highLow[1], base, level - 1, buf, end, true);
+    if (!pad && highLow[0].signum() == 0) {
+      // drop the leading zeros of the low part
+      while (lowStart < end - 1 && buf[lowStart] == '0') {
+        lowStart++;
+      }
+      return lowStart;
+    }
+    return write(highLow[0], base, level - 1, buf, lowStart, pad);
+  }
+
+  /*
+   * Write the digits of a small num ending before buf[end], with leading
+   * zeros up to width digits. The magnitude is divided in place by the
+   * largest power of the base that fits an int, each division gives
+   * wordDigits digits, so no BigInteger is created per step.
+   */
+  private static int writeWords(BigInteger num, int base, char[] buf, int end, int width) {
+    byte[] bytes = num.toByteArray(); // big endian, may have a leading zero byte
+    int words = (bytes.length + 3) / 4;
+    int[] magnitude = new int[words];
+    for (int i = 0; i < bytes.length; i++) {
+      int word = words - 1 - (bytes.length - 1 - i) / 4;
+      magnitude[word] = (magnitude[word] << 8) | (bytes[i] & 0xFF);
+    }
+    long divisor = wordPower[base];
+    int first = 0;
+    int pos = end;
+    while (first < words && magnitude[first] == 0) {
+      first++;
+    }
+    while (first < words) {
+      long remainder = 0;
+      for (int i = first; i < words; i++) {
+        long current = (remainder << 32) | (magnitude[i] & 0xFFFFFFFFL);
+        magnitude[i] = (int) (current / divisor);
+        remainder = current % divisor;
+      }
+      while (first < words && magnitude[first] == 0) {
+        first++;
+      }
+      int digit = (int) remainder;
+      int stop = (first < words) ? pos - wordDigits[base] : pos;
+      do {
+        buf[--pos] = digitChar[digit % base];
+        digit /= base;
+      } while (digit > 0);
+      while (pos > stop) {
+        buf[--pos] = '0';
+      }
+    }
+    if (pos == end) {
+      buf[--pos] = '0';
+    }
+    while (end - pos < width) {
+      buf[--pos] = '0';
+    }
+    return pos;
+  }
+
+  /* convert a BigInteger to base-N */
+  private String toBaseN(BigInteger num, int base) {
+    int signum = num.signum();
+    if (signum == 0) {
+      return "0";
+    }
+    BigInteger abs = num.abs();
+    if ((base & (base - 1)) == 0) {
+      return toPowerOfTwoBase(abs, base, signum < 0);
+    }
+    // smallest level with abs < power(base, level + 1), -1 if it fits one chunk
+    int level = -1;
+    while (power(base, level + 1).compareTo(abs) <= 0) {
+      level++;
+    }
+    int digits = chunkDigits[base] << (level + 1);
+    char[] buf = new char[digits + 1];
+    int start = write(abs, base, level, buf, buf.length, false);
+    if (signum < 0) {
+      buf[--start] = '-';
+    }
+    return new String(buf, start, buf.length - start);
+  }
+
+  /* digits of a base 2, 4, 8, 16 or 32 number are just groups of bits */
+  private String toPowerOfTwoBase(BigInteger abs, int base, boolean negative) {
+    int bits = Integer.numberOfTrailingZeros(base);
+    int digits = (abs.bitLength() + bits - 1) / bits;
+    byte[] magnitude = abs.toByteArray(); // big endian
+    char[] buf = new char[digits + 1];
+    int pos = buf.length;
+    for (int bit = 0; bit < digits * bits; bit += bits) {
+      int index = magnitude.length - 1 - (bit >> 3);
+      int window = magnitude[index] & 0xFF;
+      if (index > 0) {
+        window |= (magnitude[index - 1] & 0xFF) << 8;
+      }
+      buf[--pos] = digitChar[(window >>> (bit & 7)) & (base - 1)];
+    }
+    if (negative) {
+      buf[--pos] = '-';
+    }
+    return new String(buf, pos, buf.length - pos);
   }
 
   public String add(String num1, String num2, int base) {
-    int num1Int = toDecimal(num1, base);
-    int num2Int = toDecimal(num2, base);
-    return toBaseN(num1Int + num2Int, base);
+    return toBaseN(toBigInteger(num1, base).add(toBigInteger(num2, base)), base);
   }
 
   public String substract(String num1, String num2, int base) {
-    int num1Int = toDecimal(num1, base);
-    int num2Int = toDecimal(num2, base);
-    return toBaseN(num1Int - num2Int, base);
+    return toBaseN(toBigInteger(num1, base).subtract(toBigInteger(num2, base)), base);
+  }
+
+  public String multiply(String num1, String num2, int base) {
+    return toBaseN(toBigInteger(num1, base).multiply(toBigInteger(num2, base)), base);
   }
-	 
-} 
+
+  /* integer division, the remainder is dropped */
+  public String divide(String num1, String num2, int base) {
+    BigInteger divisor = toBigInteger(num2, base);
+    if (divisor.signum() == 0) {
+      throw new java.lang.RuntimeException("Division by zero!");
+    }
+    return toBaseN(toBigInteger(num1, base).divide(divisor), base);
+  }
+
+  /* the number num written in the given base, e.g. to test other methods */
+  public String convert(String num, int fromBase, int toBase) {
+    checkBase(toBase);
+    return toBaseN(toBigInteger(num, fromBase), toBase);
+  }
+
+}
@@ -0,0 +1,33 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Shared pool of the read buffers of the connections. A connection takes a
+ * buffer when it opens and gives it back when it closes, so new connections
+ * reuse the buffers of closed ones instead of allocating their own.
+ */
+class BufferPool {
+    static final int bufferSize = 64 * 1024;
+    // buffers kept for reuse, more are left to the garbage collector
+    static final int maxPooled = 64;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    static void release(ByteBuffer buffer) {
+        // buffers grown for a large message are not kept
+        if (buffer.capacity() == bufferSize && pool.size() < maxPooled) {
+            pool.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import buffers.OperationProtos.Operation;
+
+/**
+ * Reads delimited Operations (a varint length, then the message) from a
+ * stream. The stream is read in large blocks into a pooled buffer and each
+ * message is parsed straight from that buffer, so reading a message does
+ * not allocate streams or copy buffers like Operation.parseDelimitedFrom
+ * does for every message.
+ */
+class DelimitedReader implements Closeable {
+    // larger messages are refused, like the default limit of protobuf
+    static final int maxMessageSize = 64 * 1024 * 1024;
+
+    private final InputStream in;
+    // the bytes between position and limit are read but not parsed yet
+    private ByteBuffer buffer;
+
+    DelimitedReader(InputStream in) {
+        this.in = in;
+        buffer = BufferPool.acquire();
+        buffer.limit(0);
+    }
+
+    /**
+     * The next Operation, null if the stream ended between two messages.
+     */
+    Operation next() throws IOException {
+        int headerSize;
+        int size;
+        while (true) {
+            // the length prefix has at most 5 bytes
+            int value = 0;
+            headerSize = 0;
+            size = -1;
+            for (int i = buffer.position(); i < buffer.limit() && headerSize < 5; i++) {
+                byte b = buffer.get(i);
+                value |= (b & 0x7F) << (7 * headerSize);
+                headerSize++;
+                if (b >= 0) {
+                    size = value;
+                    break;
+                }
+            }
+            if (size < 0 && headerSize == 5) {
+                throw new InvalidProtocolBufferException("Malformed message length");
+            }
+            if (size > maxMessageSize) {
+                throw new InvalidProtocolBufferException("Message of " + size + " bytes is too large");
+            }
+            if (size >= 0 && buffer.remaining() >= headerSize + size) {
+                break;
+            }
+            // at least one more byte is needed, or the rest of the message
+            int needed = (size < 0) ? buffer.remaining() + 1 : headerSize + size;
+            if (!fill(needed)) {
+                if (buffer.remaining() == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended inside a message");
+            }
+        }
+        int start = buffer.position() + headerSize;
+        int end = start + size;
+        int limit = buffer.limit();
+        buffer.position(start);
+        buffer.limit(end);
+        try {
+            return Operation.parseFrom(buffer);
+        } finally {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+    }
+
+    /*
+     * Reads once from the stream, after moving the unparsed bytes to the
+     * front of the buffer if fewer than needed bytes would fit behind them.
+     * A buffer too small for needed bytes is replaced by a larger one.
+     * Returns false at the end of the stream.
+     */
+    private boolean fill(int needed) throws IOException {
+        if (buffer.capacity() - buffer.position() < needed) {
+            if (needed > buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, 2 * buffer.capacity()));
+                larger.put(buffer);
+                larger.flip();
+                BufferPool.release(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+                buffer.flip();
+            }
+        }
+        int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.limit(), buffer.capacity() - buffer.limit());
+        if (read < 0) {
+            return false;
+        }
+        buffer.limit(buffer.limit() + read);
+        return true;
+    }
+
+    public void close() {
+        if (buffer != null) {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
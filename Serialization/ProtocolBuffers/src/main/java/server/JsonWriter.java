@@ -0,0 +1,94 @@
+package server;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Writes a JSON object straight into UTF-8 bytes: names and values are
+ * escaped and encoded character by character, no JSON text is built as a
+ * String first. A writer is reused with reset(), each thread of the server
+ * has its own.
+ */
+class JsonWriter {
+    private static final byte[] hex = "0123456789abcdef".getBytes();
+
+    private byte[] bytes = new byte[256];
+    private int size;
+    private boolean first;
+
+    JsonWriter reset() {
+        size = 0;
+        return this;
+    }
+
+    JsonWriter beginObject() {
+        write('{');
+        first = true;
+        return this;
+    }
+
+    JsonWriter endObject() {
+        write('}');
+        return this;
+    }
+
+    /* a member "name":"value" of the current object */
+    JsonWriter member(String name, String value) {
+        if (!first) {
+            write(',');
+        }
+        first = false;
+        string(name);
+        write(':');
+        string(value);
+        return this;
+    }
+
+    ByteString toByteString() {
+        return ByteString.copyFrom(bytes, 0, size);
+    }
+
+    private void string(String value) {
+        write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                write('\\');
+                write(ch);
+            } else if (ch < 0x20) {
+                write('\\');
+                write('u');
+                write('0');
+                write('0');
+                write(hex[ch >> 4]);
+                write(hex[ch & 0xF]);
+            } else if (ch < 0x80) {
+                write(ch);
+            } else if (ch < 0x800) {
+                write(0xC0 | (ch >> 6));
+                write(0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < value.length()
+                       && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+                write(0xF0 | (codePoint >> 18));
+                write(0x80 | ((codePoint >> 12) & 0x3F));
+                write(0x80 | ((codePoint >> 6) & 0x3F));
+                write(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                // half of a pair cannot be encoded
+                write('?');
+            } else {
+                write(0xE0 | (ch >> 12));
+                write(0x80 | ((ch >> 6) & 0x3F));
+                write(0x80 | (ch & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void write(int b) {
+        if (size == bytes.length) {
+            bytes = java.util.Arrays.copyOf(bytes, 2 * size);
+        }
+        bytes[size++] = (byte) b;
+    }
+}
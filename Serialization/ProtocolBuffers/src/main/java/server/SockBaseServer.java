@@ -2,32 +2,65 @@ package server;
 
 import java.net.*;
 import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.protobuf.CodedOutputStream;
 
 import server.Base;
 import buffers.OperationProtos.Operation;
+import buffers.ResponseProtos.Number;
 import buffers.ResponseProtos.Response;
+import buffers.ResponseProtos.Result;
 
-
+/**
+ * Connections are kept open: a client can send any number of delimited
+ * Operations and gets one delimited Response for each, in order, until it
+ * closes the connection. Each connection is served by a thread of a fixed
+ * pool, so many clients are handled at the same time. A client that sends
+ * a single Operation and closes works as before.
+ *
+ * Operations are evaluated on a pool with one thread per core: a client may
+ * stream many Operations without waiting for the answers, they are evaluated
+ * in parallel and the Responses are still written in the order the
+ * Operations came in. An Operation with a batch list is answered by one
+ * Response holding the results of all operations of the list, in order, the
+ * list is split over the cores.
+ *
+ * Clients that set typedResponse get a Result per operation: a text, a
+ * Number, or a JSON object written as UTF-8 bytes by a JsonWriter; the
+ * others get the same text in resultString as before.
+ *
+ * The hot path allocates little per message: Operations are parsed straight
+ * from a pooled read buffer (DelimitedReader), responses go through one
+ * CodedOutputStream per connection and are built with a builder reused by
+ * each worker thread.
+ */
 class SockBaseServer {
     public static void main (String args[]) throws Exception {
 
-        int count = 0;
         ServerSocket    serv = null;
-        InputStream in = null;
-        OutputStream out = null;
-        Socket clientSocket = null;
         int port = 9099; // default port
         int sleepDelay = 10000; // default delay
-        if (args.length != 2) {
-          System.out.println("Expected arguments: <port(int)> <delay(int)>");
+        int threads = 20; // default number of connections served at once
+        if (args.length != 2 && args.length != 3) {
+          System.out.println("Expected arguments: <port(int)> <delay(int)> [threads(int)]");
           System.exit(1);
 		}
-        
+
         try {
           port = Integer.parseInt(args[0]);
           sleepDelay = Integer.parseInt(args[1]);
+          if (args.length == 3) {
+            threads = Integer.parseInt(args[2]);
+          }
         } catch (NumberFormatException nfe) {
-          System.out.println("[Port|sleepDelay] must be an integer");
+          System.out.println("[Port|sleepDelay|threads] must be an integer");
           System.exit(2);
         }
         try {
@@ -36,48 +69,292 @@ class SockBaseServer {
           e.printStackTrace();
           System.exit(2);
         }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // every connection also needs a thread writing its responses
+        writers = Executors.newCachedThreadPool();
+        System.out.println("Ready...");
         while (serv.isBound() && !serv.isClosed()) {
-            System.out.println("Ready...");
             try {
-                clientSocket = serv.accept();
-                in = clientSocket.getInputStream();
+                Socket clientSocket = serv.accept();
+                pool.execute(new Connection(clientSocket));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+        pool.shutdown();
+        writers.shutdown();
+    }
+
+    // evaluates the operations of all connections, one thread per core
+    static final ForkJoinPool workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    static ExecutorService writers;
+
+    // most responses that are computed or waiting to be written per connection
+    static final int maxPending = 1000;
+    // batch parts smaller than this are not split any further
+    static final int minBatchPart = 16;
+
+    // Base keeps no state, all connections share it
+    static final Base base = new Base();
+
+    // size of the write buffer of each connection
+    static final int writeBufferSize = 8192;
+
+    // every worker builds its responses with the same builder
+    private static final ThreadLocal<Response.Builder> builders = ThreadLocal.withInitial(Response::newBuilder);
+    private static final ThreadLocal<Result.Builder> resultBuilders = ThreadLocal.withInitial(Result::newBuilder);
+    private static final ThreadLocal<JsonWriter> jsonWriters = ThreadLocal.withInitial(JsonWriter::new);
+
+    // marks the end of the responses of a connection
+    private static final CompletableFuture<Response> endOfStream = CompletableFuture.completedFuture(null);
+
+    /**
+     * Serves the Operations of one client until it closes the connection.
+     */
+    static class Connection implements Runnable {
+        private final Socket clientSocket;
+
+        Connection(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+        }
+
+        public void run() {
+            DelimitedReader in = null;
+            OutputStream out = null;
+            int count = 0;
+            CompletableFuture<?> written = null;
+            BlockingQueue<CompletableFuture<Response>> pending = new LinkedBlockingQueue<>(maxPending);
+            try {
+                clientSocket.setTcpNoDelay(true);
+                // both sides buffer themselves, the socket streams are used directly
+                in = new DelimitedReader(clientSocket.getInputStream());
                 out = clientSocket.getOutputStream();
-                // read the proto object and put into new objct
-                Operation op = Operation.parseDelimitedFrom(in);
-                String result = null;
-                String num1 = op.getVal1();
-                String num2 = op.getVal2();
-                int baseN = op.getBase();
-
-                Base base = new Base();
-
-                if (op.getOperationType() == Operation.OperationType.ADD) {
-                  result = base.add(num1, num2, baseN);
-                  System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
-                } else if (op.getOperationType() == Operation.OperationType.SUB) {
-                  result = base.substract(num1, num2, baseN);
-                  System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
-                }
-                if (op.getResponseType() == Operation.ResponseType.JSON){
-                  //just building a JSON strinng
-                  result = "{'result':'" + result +"'}";
+                CodedOutputStream output = CodedOutputStream.newInstance(out, writeBufferSize);
+                written = CompletableFuture.runAsync(() -> writeResponses(pending, output, clientSocket), writers);
+                // read the proto objects one after the other, null once the client closed
+                Operation op;
+                while ((op = in.next()) != null) {
+                    Operation operation = op;
+                    // blocks while too many responses are pending, so a client
+                    // that sends faster than it reads is slowed down
+                    pending.put(CompletableFuture.supplyAsync(() -> evaluate(operation), workers));
+                    count++;
                 }
-                Response response = buildResponse(result);
-                response.writeDelimitedTo(out);
+                System.out.println("Connection closed after " + count + " operations");
             } catch (Exception ex) {
                 ex.printStackTrace();
             } finally {
-                if (out != null)  out.close();
-                if (in != null)   in.close();
-                if (clientSocket != null) clientSocket.close();
+                try {
+                    if (written != null) {
+                        // let the writer finish the responses still pending
+                        pending.put(endOfStream);
+                        written.join();
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+                try {
+                    if (out != null)  out.close();
+                    if (in != null)   in.close();
+                    clientSocket.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
             }
         }
     }
 
-    private static Response buildResponse(String result) {
-      Response.Builder response = Response.newBuilder();
-      response.setResultString(result);
-      return response.build();
+    /**
+     * Writes the responses in the order they were queued, each once it is
+     * computed. The stream is flushed when no computed response is waiting,
+     * so answers to a stream of operations share packets.
+     */
+    private static void writeResponses(BlockingQueue<CompletableFuture<Response>> pending, CodedOutputStream out, Socket socket) {
+        try {
+            CompletableFuture<Response> next = pending.take();
+            while (next != endOfStream) {
+                writeDelimited(next.join(), out);
+                CompletableFuture<Response> after = pending.peek();
+                if (after == null || !after.isDone()) {
+                    out.flush();
+                }
+                next = pending.take();
+            }
+            out.flush();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            // the reader sees the connection end and stops queueing
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+            discardResponses(pending);
+        }
+    }
+
+    /*
+     * Takes and drops the responses until the reader queues endOfStream, so
+     * a reader blocked on a full queue always gets to the end.
+     */
+    private static void discardResponses(BlockingQueue<CompletableFuture<Response>> pending) {
+        try {
+            while (pending.take() != endOfStream) {
+                // nobody reads the answer any more
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
 
+    /**
+     * Same bytes as response.writeDelimitedTo, without a new CodedOutputStream
+     * and buffer for every response.
+     */
+    static void writeDelimited(Response response, CodedOutputStream out) throws IOException {
+        out.writeUInt32NoTag(response.getSerializedSize());
+        response.writeTo(out);
+    }
+
+    /**
+     * The response for one operation or for a batch of operations. A bad
+     * operation gets an error result, it does not end the connection.
+     * Typed responses carry a Result per operation, the others the text of
+     * each Result.
+     */
+    static Response evaluate(Operation op) {
+        Response.Builder response;
+        if (op.getBatchCount() == 0) {
+            Result result = result(base, op, true);
+            response = builders.get().clear();
+            if (op.getTypedResponse()) {
+                response.setResult(result);
+            } else {
+                response.setResultString(text(result));
+            }
+            return response.build();
+        }
+        Result[] results = new Result[op.getBatchCount()];
+        workers.invoke(new BatchPart(base, op, results, 0, results.length));
+        System.out.println("Batch of " + results.length + " operations");
+        response = builders.get().clear();
+        for (Result result : results) {
+            if (op.getTypedResponse()) {
+                response.addTypedResults(result);
+            } else {
+                response.addResults(text(result));
+            }
+        }
+        return response.build();
+    }
+
+    private static Result result(Base base, Operation op, boolean print) {
+        try {
+            if (op.getBatchCount() > 0) {
+                return error(op, "batches cannot be nested");
+            }
+            return success(op, calculate(base, op, print));
+        } catch (RuntimeException ex) {
+            return error(op, ex.getMessage());
+        }
+    }
+
+    private static Result success(Operation op, String value) {
+        Result.Builder result = resultBuilders.get().clear();
+        if (op.getResponseType() == Operation.ResponseType.JSON) {
+            result.setJson(jsonWriters.get().reset().beginObject().member("result", value).endObject().toByteString());
+        } else if (op.getResponseType() == Operation.ResponseType.NUMBER) {
+            boolean negative = value.startsWith("-");
+            result.setNumber(Number.newBuilder()
+                .setDigits(negative ? value.substring(1) : value)
+                .setBase(op.getBase())
+                .setNegative(negative));
+        } else {
+            result.setText(value);
+        }
+        return result.build();
+    }
+
+    private static Result error(Operation op, String message) {
+        Result.Builder result = resultBuilders.get().clear();
+        if (op.getResponseType() == Operation.ResponseType.JSON) {
+            result.setJson(jsonWriters.get().reset().beginObject().member("error", message).endObject().toByteString());
+        } else {
+            result.setError(message);
+        }
+        return result.build();
+    }
+
+    /* the result as text, for clients that do not ask for typed responses */
+    static String text(Result result) {
+        switch (result.getValueCase()) {
+            case TEXT:
+                return result.getText();
+            case NUMBER:
+                return (result.getNumber().getNegative() ? "-" : "") + result.getNumber().getDigits();
+            case JSON:
+                return result.getJson().toStringUtf8();
+            case ERROR:
+                return "Error: " + result.getError();
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Evaluates the operations from..to-1 of a batch, halves are forked
+     * until they are small, idle cores steal the forked halves.
+     */
+    static class BatchPart extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Base base;
+        private final Operation batch;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        BatchPart(Base base, Operation batch, Result[] results, int from, int to) {
+            this.base = base;
+            this.batch = batch;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= minBatchPart) {
+                for (int i = from; i < to; i++) {
+                    results[i] = result(base, batch.getBatch(i), false);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchPart(base, batch, results, from, middle),
+                          new BatchPart(base, batch, results, middle, to));
+            }
+        }
+    }
+
+    // print is off for batches, one line per operation would serialize the cores
+    static String calculate(Base base, Operation op, boolean print) {
+        String result = null;
+        String num1 = op.getVal1();
+        String num2 = op.getVal2();
+        int baseN = op.getBase();
+
+        if (op.getOperationType() == Operation.OperationType.ADD) {
+          result = base.add(num1, num2, baseN);
+          if (print) System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
+        } else if (op.getOperationType() == Operation.OperationType.SUB) {
+          result = base.substract(num1, num2, baseN);
+          if (print) System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
+        } else if (op.getOperationType() == Operation.OperationType.MUL) {
+          result = base.multiply(num1, num2, baseN);
+          if (print) System.out.println("base " + baseN + ": " + num1 + " * " + num2 + " = " + result);
+        } else if (op.getOperationType() == Operation.OperationType.DIV) {
+          result = base.divide(num1, num2, baseN);
+          if (print) System.out.println("base " + baseN + ": " + num1 + " / " + num2 + " = " + result);
+        }
+        return result;
+    }
+}
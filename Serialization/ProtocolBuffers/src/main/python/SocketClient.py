@@ -24,7 +24,8 @@ class SocketClient(object):
     }
     RESPONSE_TYPES = {
         "json": Operation.ResponseType.JSON,
-        "string": Operation.ResponseType.STRING
+        "string": Operation.ResponseType.STRING,
+        "number": Operation.ResponseType.NUMBER
     }
 
     def connect(self):
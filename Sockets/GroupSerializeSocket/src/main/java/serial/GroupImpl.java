@@ -2,6 +2,9 @@ package serial;
 
 import java.util.Vector;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -20,23 +23,30 @@ public class GroupImpl implements Group, Serializable {
 
   private String name;
   private Vector<User> users = new Vector<User>();
+  // the users by id, users keeps their order and is what gets serialized
+  private transient ConcurrentHashMap<String, User> index = new ConcurrentHashMap<String, User>();
 
   public GroupImpl(String name) {
     this.name = name;
   }
 
+  // the index is not serialized, it is built again from the users
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    index = new ConcurrentHashMap<String, User>(users.size());
+    for (User user : users) {
+      index.putIfAbsent(user.getId(), user);
+    }
+  }
+
   public String getName(){
     return name;
   }
 
   public void addUserToGroup(String id, String pwd) {
-    boolean found = false;
-    for (int i = 0; i<users.size(); i++) {
-      if ((users.elementAt(i)).getId().equals(id))
-        found = true;
-    }
-    if (!found)
-      users.addElement(new User(id,pwd));
+    User user = new User(id,pwd);
+    if (index.putIfAbsent(id, user) == null)
+      users.addElement(user);
   }
 
   public Vector<String> getUserNames() {
@@ -48,13 +58,7 @@ public class GroupImpl implements Group, Serializable {
   }
 
   public boolean isMember(String id, String pwd) {
-    boolean match = false;
-    for (Enumeration e = users.elements() ; e.hasMoreElements() ;) {
-      if(((User)e.nextElement()).check(id,pwd)){
-        match = true;
-        break;
-      }
-    }
-    return match;
+    User user = (id == null) ? null : index.get(id);
+    return user != null && user.check(id,pwd);
   }
 }
@@ -1,6 +1,8 @@
 package serial;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 /**
 
@@ -27,8 +29,11 @@ class User implements Serializable {
     return userId;
   }
 
+  // constant time comparison, so timing does not leak matching prefixes
   protected boolean check(String id, String pwd) {
-    return (userId.equals(id) && userPwd.equals(pwd));
+    return (userId.equals(id) && pwd != null
+            && MessageDigest.isEqual(pwd.getBytes(StandardCharsets.UTF_8),
+                                     userPwd.getBytes(StandardCharsets.UTF_8)));
   }
 }
     
@@ -4,80 +4,147 @@ import java.net.*;
 import java.io.*;
 import java.util.Map;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.json.JSONException;
 
 
+/**
+ * Sends the request in a data file to the server count times. framed (the
+ * default) sends all requests as length prefixed frames over one
+ * connection, object uses the original protocol of one ObjectStream
+ * connection per request. With a count above 1 only the throughput is
+ * printed.
+ */
 class SockBaseClient {
      
 
      public static void main (String args[]) throws Exception {
-        Socket serverSock = null;
-        ObjectOutputStream out = null;
-        ObjectInputStream in = null;
-        int i1=0, i2=0;
         int port = 9099; // default port
+        int count = 1; // how often the request is sent
+        String transport = "framed";
 
-        if (args.length != 3) {
-            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)>");
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)> [count(int)] [transport(framed|object)]");
             System.exit(1);
         }
         String host = args[0];
         try {
             port = Integer.parseInt(args[1]);
+            if (args.length >= 4) {
+                count = Integer.parseInt(args[3]);
+            }
         } catch (NumberFormatException nfe) {
-            System.out.println("[Port] must be integer");
+            System.out.println("[Port|count] must be integer");
             System.exit(2);
         }
+        if (args.length == 5) {
+            transport = args[4];
+        }
         String filename = args[2];
         
         // read JSON data from the file
         JSONObject data = null;
         try {
           data = readJson(filename);
-          System.out.println(data);
+          if (count == 1) {
+            System.out.println(data);
+          }
         } catch (IOException ex) {
           ex.printStackTrace();
         } catch (JSONException ex) {
           ex.printStackTrace();
         }
 
+        String request = data.toString();
+        String responseType = data.getJSONObject("header").getString("response");
+        responseType = responseType.toLowerCase();
+        if (count == 1) {
+            System.out.println("Requested response type: " + responseType.toUpperCase());
+        }
+
+        try {
+            long start = System.nanoTime();
+            String result = null;
+            if (transport.equals("object")) {
+                for (int n = 0; n < count; n++) {
+                    result = sendObject(host, port, request);
+                }
+            } else {
+                result = sendFramed(host, port, request, count);
+            }
+            long nanos = System.nanoTime() - start;
+
+            if (count == 1) {
+                System.out.println("Result is " + parseResult(result, responseType));
+            } else {
+                System.out.println(count + " requests (" + transport + ") in " + (nanos / 1000000) + " ms, "
+                    + (long) (count * 1e9 / nanos) + " requests/s");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* the original protocol, a connection with object streams per request */
+    private static String sendObject(String host, int port, String request) throws Exception {
+        Socket serverSock = null;
+        ObjectOutputStream out = null;
+        ObjectInputStream in = null;
         try {
             // connect to the server
             serverSock = new Socket(host, port);
 
             // write to the server
             out = new ObjectOutputStream(serverSock.getOutputStream());
-            out.writeObject(data.toString());
+            out.writeObject(request);
 
             // read from the server
             in = new ObjectInputStream(serverSock.getInputStream());
+            return (String) in.readObject();
+        } finally {
+            if (in != null)   in.close();
+            if (out != null)  out.close();
+            if (serverSock != null) serverSock.close();
+        }
+    }
 
-            String parsedResult = "";
-            String responseType = data.getJSONObject("header").getString("response");
-            responseType = responseType.toLowerCase();
+    /* count frames over one connection, returns the last result */
+    private static String sendFramed(String host, int port, String request, int count) throws IOException {
+        byte[] frame = request.getBytes(StandardCharsets.UTF_8);
+        String result = null;
+        try (Socket serverSock = new Socket(host, port)) {
+            serverSock.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(serverSock.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(serverSock.getInputStream()));
+            for (int n = 0; n < count; n++) {
+                // 4 byte length, then the UTF-8 JSON
+                out.writeInt(frame.length);
+                out.write(frame);
+                out.flush();
 
-            System.out.println("Requested response type: " + responseType.toUpperCase());
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                result = new String(response, StandardCharsets.UTF_8);
+            }
+        }
+        return result;
+    }
 
-            if (responseType.equals("json")){
-                //getting result from JSON
-                parsedResult = String.valueOf(new JSONObject((String) in.readObject()).get("result"));
+    private static String parseResult(String result, String responseType) {
+        if (result.startsWith("{")) {
+            JSONObject json = new JSONObject(result);
+            if (json.has("error")) {
+                return "Error: " + json.get("error");
             }
-            else {
-                parsedResult = (String) in.readObject();
+            if (responseType.equals("json")) {
+                //getting result from JSON
+                return String.valueOf(json.get("result"));
             }
-            
-
-            System.out.println("Result is " + parsedResult);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (in != null)   in.close();
-            if (out != null)  out.close();
-            if (serverSock != null) serverSock.close();
         }
+        return result;
     }
 
     private static JSONObject readJson(String filename) throws IOException, JSONException {
@@ -0,0 +1,210 @@
+package server;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.HashMap;
+
+/**
+ * A declarative description of the fields of a JSON request object. It is
+ * compiled once into a table from field name to slot and type, then
+ * requests are validated while they are read from the JSONTokener: each
+ * value is checked against the type of its field and stored in its slot,
+ * no JSONObject or Map of the request is built. Checking a field is a
+ * table lookup and a type test.
+ *
+ * Example:
+ *   RequestSchema header = RequestSchema.builder()
+ *     .field("operation", RequestSchema.Type.STRING)
+ *     .build();
+ *   RequestSchema schema = RequestSchema.builder()
+ *     .object("header", header)
+ *     .build();
+ *   RequestSchema.Values req = schema.parse(new JSONTokener(text));
+ *   RequestSchema.ValidationError error = req.require("header");
+ */
+class RequestSchema {
+
+  /** Types a field can have, named like the classes the org.json parser produces. */
+  enum Type {
+    STRING("java.lang.String"),
+    OBJECT("org.json.JSONObject");
+
+    final String typeName;
+
+    Type(String typeName) {
+      this.typeName = typeName;
+    }
+
+    /* does a value from JSONTokener.nextValue have this type */
+    boolean matches(Object value) {
+      switch (this) {
+        case STRING: return value instanceof String;
+        default: return value instanceof JSONObject;
+      }
+    }
+  }
+
+  /** What is wrong with a request, and with which field. */
+  static class ValidationError {
+    enum Kind {
+      MISSING,
+      WRONG_TYPE
+    }
+
+    final String field;
+    final Kind kind;
+    final String message;
+
+    ValidationError(String field, Kind kind, String message) {
+      this.field = field;
+      this.kind = kind;
+      this.message = message;
+    }
+  }
+
+  static class Builder {
+    private final java.util.List<String> names = new java.util.ArrayList<>();
+    private final java.util.List<Type> types = new java.util.ArrayList<>();
+    private final java.util.List<RequestSchema> nested = new java.util.ArrayList<>();
+
+    Builder field(String name, Type type) {
+      names.add(name);
+      types.add(type);
+      nested.add(null);
+      return this;
+    }
+
+    /* a field holding an object with its own schema */
+    Builder object(String name, RequestSchema schema) {
+      names.add(name);
+      types.add(Type.OBJECT);
+      nested.add(schema);
+      return this;
+    }
+
+    RequestSchema build() {
+      return new RequestSchema(this);
+    }
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  private final String[] names;
+  private final Type[] types;
+  private final RequestSchema[] nested;
+  private final HashMap<String, Integer> slots = new HashMap<>();
+
+  private RequestSchema(Builder builder) {
+    names = builder.names.toArray(new String[0]);
+    types = builder.types.toArray(new Type[0]);
+    nested = builder.nested.toArray(new RequestSchema[0]);
+    for (int i = 0; i < names.length; i++) {
+      slots.put(names[i], i);
+    }
+  }
+
+  /** The fields of one request, read with a schema. */
+  static class Values {
+    private final RequestSchema schema;
+    private final Object[] values;
+    private final ValidationError.Kind[] problems;
+
+    private Values(RequestSchema schema) {
+      this.schema = schema;
+      values = new Object[schema.names.length];
+      problems = new ValidationError.Kind[schema.names.length];
+    }
+
+    private int slot(String name) {
+      Integer slot = schema.slots.get(name);
+      if (slot == null) {
+        throw new IllegalArgumentException("Field " + name + " is not in the schema");
+      }
+      return slot;
+    }
+
+    /* the problem of the first of the fields that is missing or invalid, null if all are fine */
+    ValidationError require(String... fields) {
+      for (String name : fields) {
+        int slot = slot(name);
+        if (problems[slot] == ValidationError.Kind.WRONG_TYPE) {
+          return new ValidationError(name, ValidationError.Kind.WRONG_TYPE,
+              "Field " + name + " needs to be of type: " + schema.types[slot].typeName);
+        }
+        if (values[slot] == null) {
+          return new ValidationError(name, ValidationError.Kind.MISSING,
+              "Field " + name + " does not exist in request");
+        }
+      }
+      return null;
+    }
+
+    String getString(String name) {
+      return (String) values[slot(name)];
+    }
+
+    Values getObject(String name) {
+      return (Values) values[slot(name)];
+    }
+  }
+
+  /**
+   * Reads one JSON object from the tokener. Fields that are not in the
+   * schema are skipped, fields of the wrong type are remembered for
+   * require. Throws a JSONException if the text is not a JSON object.
+   */
+  Values parse(JSONTokener x) {
+    Values values = new Values(this);
+    if (x.nextClean() != '{') {
+      throw x.syntaxError("A JSON object text must begin with '{'");
+    }
+    if (x.nextClean() == '}') {
+      return values;
+    }
+    x.back();
+    while (true) {
+      // keys are read like JSONObject does, quoted or not
+      String key = x.nextValue().toString();
+      if (x.nextClean() != ':') {
+        throw x.syntaxError("Expected a ':' after a key");
+      }
+      Integer slot = slots.get(key);
+      if (slot == null) {
+        x.nextValue();
+      } else {
+        read(values, slot, x);
+      }
+      char c = x.nextClean();
+      if (c == '}') {
+        return values;
+      }
+      if (c != ',') {
+        throw x.syntaxError("Expected a ',' or '}'");
+      }
+      if (x.nextClean() == '}') {
+        return values;
+      }
+      x.back();
+    }
+  }
+
+  private void read(Values values, int slot, JSONTokener x) {
+    values.values[slot] = null;
+    values.problems[slot] = null;
+    char c = x.nextClean();
+    x.back();
+    if (types[slot] == Type.OBJECT && nested[slot] != null && c == '{') {
+      values.values[slot] = nested[slot].parse(x);
+    } else {
+      Object value = x.nextValue();
+      if (types[slot].matches(value)) {
+        values.values[slot] = value;
+      } else {
+        values.problems[slot] = ValidationError.Kind.WRONG_TYPE;
+      }
+    }
+  }
+}
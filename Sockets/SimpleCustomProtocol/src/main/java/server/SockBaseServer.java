@@ -3,24 +3,43 @@ package server;
 import java.net.*;
 import java.io.*;
 
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import server.Base;
 
+/**
+ * Two transports are served on the same port. The first byte of a
+ * connection tells them apart:
+ *
+ * - framed: every request and response is a frame, a 4 byte big endian
+ *   length followed by that many bytes of UTF-8 JSON. The connection stays
+ *   open for any number of requests until the client closes it.
+ * - object streams (the original protocol): the client writes the JSON
+ *   string with an ObjectOutputStream, gets one result and the connection
+ *   is closed. Object streams start with the magic byte 0xAC, a frame
+ *   length below 16 MB starts with 0.
+ *
+ * Connections are served by a fixed pool of threads, so several clients are
+ * served at the same time.
+ */
 class SockBaseServer {
+    // first byte of the header of a Java object stream
+    static final int objectStreamMagic = 0xAC;
+    // larger frames are refused
+    static final int maxFrameSize = 16 * 1024 * 1024 - 1;
+
     public static void main (String args[]) throws Exception {
 
-        int count = 0;
         ServerSocket    serv = null;
-        ObjectInputStream in = null;
-        ObjectOutputStream out = null;
-        Socket clientSocket = null;
         int port = 9099; // default port
         int sleepDelay = 10000; // default delay
-        if (args.length != 2) {
-          System.out.println("Expected arguments: <port(int)> <delay(int)>");
+        int threads = 20; // default number of connections served at once
+        if (args.length != 2 && args.length != 3) {
+          System.out.println("Expected arguments: <port(int)> <delay(int)> [threads(int)]");
           System.exit(1);
 		    }
         System.out.println("Running on port: " + args[0]);
@@ -29,8 +48,11 @@ class SockBaseServer {
         try {
           port = Integer.parseInt(args[0]);
           sleepDelay = Integer.parseInt(args[1]);
+          if (args.length == 3) {
+            threads = Integer.parseInt(args[2]);
+          }
         } catch (NumberFormatException nfe) {
-          System.out.println("[Port|sleepDelay] must be an integer");
+          System.out.println("[Port|sleepDelay|threads] must be an integer");
           System.exit(2);
         }
         try {
@@ -39,79 +61,224 @@ class SockBaseServer {
           e.printStackTrace();
           System.exit(2);
         }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        System.out.println("Ready...");
         while (serv.isBound() && !serv.isClosed()) {
-            System.out.println("Ready...");
             try {
-                clientSocket = serv.accept();
-                in = new ObjectInputStream(clientSocket.getInputStream());
-                out = new ObjectOutputStream(clientSocket.getOutputStream());
-                String jsonData = (String) in.readObject();
-
-                // convert json string to a JSON object
-                JSONTokener jsonTokener = new JSONTokener(jsonData);
-                JSONObject data = new JSONObject(jsonTokener);
-                
-                // get the 'header' and the 'payload'
-                JSONObject headerJSON = (JSONObject)data.get("header");
-                JSONObject payloadJSON = (JSONObject)data.get("payload");
-
-                Map header = headerJSON.toMap();
-                Map payload = payloadJSON.toMap();
-                
-                Operations operation = getOperation(header);
-                Response response = getResponse(header);
-                int baseN = getBase(header, "base");
-
-                String num1 = getNum(payload, "num1");
-                String num2 = getNum(payload, "num2");
-
-                Base base = new Base();
-
-                // String type result by default
-                String result = null;
-
-                if (operation == Operations.ADD) {
-                  result = base.add(num1, num2, baseN);
-		  System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
-                } else if (operation == Operations.SUB) {
-                  result = base.substract(num1, num2, baseN);
-		  System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
-                }
+                Socket clientSocket = serv.accept();
+                pool.execute(new Connection(clientSocket));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+        pool.shutdown();
+    }
 
-                if (response == Response.JSON){
-                  //just building a JSON strinng
-                  result = "{'result':" + result + "}";
-                }
+    /**
+     * Serves one client, framed or with object streams.
+     */
+    static class Connection implements Runnable {
+        private final Socket clientSocket;
+
+        Connection(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+        }
 
-                out.writeObject(result);
+        public void run() {
+            try {
+                clientSocket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+                in.mark(1);
+                int first = in.read();
+                in.reset();
+                if (first == objectStreamMagic) {
+                    serveObjectStream(in);
+                } else if (first >= 0) {
+                    serveFrames(in);
+                }
             } catch (Exception ex) {
                 ex.printStackTrace();
             } finally {
-                if (out != null)  out.close();
-                if (in != null)   in.close();
-                if (clientSocket != null) clientSocket.close();
+                try {
+                    clientSocket.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        /* the original protocol: one request, one result, then close */
+        private void serveObjectStream(InputStream input) throws Exception {
+            ObjectInputStream in = new ObjectInputStream(input);
+            ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
+            String jsonData = (String) in.readObject();
+            out.writeObject(handle(jsonData));
+            out.flush();
+        }
+
+        /* frames until the client closes the connection */
+        private void serveFrames(InputStream input) throws IOException {
+            DataInputStream in = new DataInputStream(input);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+            int count = 0;
+            String jsonData;
+            while ((jsonData = readFrame(in)) != null) {
+                String result;
+                try {
+                    result = handle(jsonData);
+                } catch (Exception ex) {
+                    // a bad request is answered, it does not end the connection
+                    JSONObject error = new JSONObject();
+                    error.put("error", String.valueOf(ex.getMessage()));
+                    if (ex instanceof InvalidRequestException) {
+                        // which field is wrong and how: MISSING, WRONG_TYPE, ...
+                        RequestSchema.ValidationError invalid = ((InvalidRequestException) ex).error;
+                        error.put("field", invalid.field);
+                        error.put("kind", invalid.kind.toString());
+                    }
+                    result = error.toString();
+                }
+                writeFrame(out, result);
+                out.flush();
+                count++;
             }
+            System.out.println("Connection closed after " + count + " requests");
+        }
+    }
+
+    /**
+     * Reads one frame, null if the stream ended before it.
+     */
+    static String readFrame(DataInputStream in) throws IOException {
+        byte[] lengthBytes = new byte[4];
+        int read = in.read(lengthBytes);
+        if (read < 0) {
+            return null;
+        }
+        in.readFully(lengthBytes, read, 4 - read);
+        int length = ((lengthBytes[0] & 0xFF) << 24) | ((lengthBytes[1] & 0xFF) << 16)
+                   | ((lengthBytes[2] & 0xFF) << 8) | (lengthBytes[3] & 0xFF);
+        if (length < 0 || length > maxFrameSize) {
+            throw new IOException("Frame of " + length + " bytes is too large");
         }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
     }
 
-    private static int getBase(Map header, String key) {
-      return Integer.parseInt((String) header.get(key));
+    static void writeFrame(DataOutputStream out, String text) throws IOException {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
     }
 
-    private static Operations getOperation(Map header) throws RuntimeException {
-      String operation = (String) header.get("operation");
+    /**
+     * Evaluates one request, a JSON object with header and payload, and
+     * returns the result in the requested response type.
+     */
+    static String handle(String jsonData) {
+        // validated while it is parsed, without building JSON objects or maps
+        RequestSchema.Values data = requestSchema.parse(new JSONTokener(jsonData));
+
+        // get the 'header' and the 'payload'
+        check(data.require("header", "payload"));
+        RequestSchema.Values header = data.getObject("header");
+        RequestSchema.Values payload = data.getObject("payload");
+        check(header.require("operation", "base", "response"));
+        check(payload.require("num1", "num2"));
+
+        Operations operation = getOperation(header);
+        Response response = getResponse(header);
+        int baseN = getBase(header, "base");
+
+        String num1 = payload.getString("num1");
+        String num2 = payload.getString("num2");
+
+        // String type result by default
+        String result = null;
+
+        if (operation == Operations.ADD) {
+          result = base.add(num1, num2, baseN);
+          System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
+        } else if (operation == Operations.SUB) {
+          result = base.substract(num1, num2, baseN);
+          System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
+        } else if (operation == Operations.MUL) {
+          result = base.multiply(num1, num2, baseN);
+          System.out.println("base " + baseN + ": " + num1 + " * " + num2 + " = " + result);
+        } else if (operation == Operations.DIV) {
+          result = base.divide(num1, num2, baseN);
+          System.out.println("base " + baseN + ": " + num1 + " / " + num2 + " = " + result);
+        }
+
+        if (response == Response.JSON){
+          //just building a JSON strinng
+          result = "{'result':'" + result + "'}";
+        }
+        return result;
+    }
+
+    // Base keeps no state, all connections share it
+    private static final Base base = new Base();
+
+    // the request format, compiled once
+    static final RequestSchema headerSchema = RequestSchema.builder()
+        .field("operation", RequestSchema.Type.STRING)
+        .field("base", RequestSchema.Type.STRING)
+        .field("response", RequestSchema.Type.STRING)
+        .build();
+    static final RequestSchema payloadSchema = RequestSchema.builder()
+        .field("num1", RequestSchema.Type.STRING)
+        .field("num2", RequestSchema.Type.STRING)
+        .build();
+    static final RequestSchema requestSchema = RequestSchema.builder()
+        .object("header", headerSchema)
+        .object("payload", payloadSchema)
+        .build();
+
+    /**
+     * A request that does not match the schema, with the field and what is
+     * wrong with it.
+     */
+    static class InvalidRequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final RequestSchema.ValidationError error;
+
+        InvalidRequestException(RequestSchema.ValidationError error) {
+            super(error.message);
+            this.error = error;
+        }
+    }
+
+    private static void check(RequestSchema.ValidationError error) {
+        if (error != null) {
+            throw new InvalidRequestException(error);
+        }
+    }
+
+    private static int getBase(RequestSchema.Values header, String key) {
+      return Integer.parseInt(header.getString(key));
+    }
+
+    private static Operations getOperation(RequestSchema.Values header) throws RuntimeException {
+      String operation = header.getString("operation");
       operation = operation.toLowerCase();
       if (operation.equals("add")) {
         return Operations.ADD;
       } else if (operation.equals("sub")) {
         return Operations.SUB;
+      } else if (operation.equals("mul")) {
+        return Operations.MUL;
+      } else if (operation.equals("div")) {
+        return Operations.DIV;
       } else {
         throw new java.lang.RuntimeException("Operation not found!");
       }
     }
 
-    private static Response getResponse(Map header) throws RuntimeException {
-      String response = (String) header.get("response");
+    private static Response getResponse(RequestSchema.Values header) throws RuntimeException {
+      String response = header.getString("response");
       response = response.toLowerCase();
       if (response.equals("json")) {
         return Response.JSON;
@@ -122,15 +289,13 @@ class SockBaseServer {
         throw new java.lang.RuntimeException("Response type not found!");
       }
     }
-
-    private static String getNum(Map payload, String key) {
-      return (String) payload.get(key);
-    }
 }
 
 enum Operations {
   ADD,
-  SUB
+  SUB,
+  MUL,
+  DIV
 }
 enum Response {
   JSON,
@@ -0,0 +1,125 @@
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Count, sum, min, max and mean of a stream of integers, collected in one
+ * pass without keeping the numbers. The sum is a long as long as it fits,
+ * when it would overflow the long part is moved into a BigInteger, so any
+ * amount of numbers of any size can be added. Stats of several chunks of
+ * a stream are combined with merge.
+ */
+class NumberStats {
+  private long count;
+  // the sum is bigSum + sum, bigSum stays null until the long would overflow
+  private long sum;
+  private BigInteger bigSum;
+  // min and max of the numbers that fit a long, and of those that do not
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+  private BigInteger bigMin;
+  private BigInteger bigMax;
+
+  void add(long value) {
+    count++;
+    addToSum(value);
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  /* a number that does not fit a long */
+  void add(BigInteger value) {
+    count++;
+    bigSum = (bigSum == null) ? value : bigSum.add(value);
+    if (bigMin == null || value.compareTo(bigMin) < 0) {
+      bigMin = value;
+    }
+    if (bigMax == null || value.compareTo(bigMax) > 0) {
+      bigMax = value;
+    }
+  }
+
+  void merge(NumberStats other) {
+    count += other.count;
+    addToSum(other.sum);
+    if (other.bigSum != null) {
+      bigSum = (bigSum == null) ? other.bigSum : bigSum.add(other.bigSum);
+    }
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    if (other.bigMin != null && (bigMin == null || other.bigMin.compareTo(bigMin) < 0)) {
+      bigMin = other.bigMin;
+    }
+    if (other.bigMax != null && (bigMax == null || other.bigMax.compareTo(bigMax) > 0)) {
+      bigMax = other.bigMax;
+    }
+  }
+
+  private void addToSum(long value) {
+    long result = sum + value;
+    // overflow if both have the same sign and the result has the other one
+    if (((sum ^ result) & (value ^ result)) < 0) {
+      bigSum = (bigSum == null) ? BigInteger.valueOf(sum) : bigSum.add(BigInteger.valueOf(sum));
+      result = value;
+    }
+    sum = result;
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  /* a Long if the sum fits one, a BigInteger otherwise */
+  Number getSum() {
+    if (bigSum == null) {
+      return sum;
+    }
+    BigInteger total = bigSum.add(BigInteger.valueOf(sum));
+    return (total.bitLength() < 64) ? (Number) total.longValue() : total;
+  }
+
+  // min and max are only set once a number that fits a long was added
+  private boolean hasLongs() {
+    return min <= max;
+  }
+
+  Number getMin() {
+    if (bigMin != null && (!hasLongs() || bigMin.compareTo(BigInteger.valueOf(min)) < 0)) {
+      return bigMin;
+    }
+    return min;
+  }
+
+  Number getMax() {
+    if (bigMax != null && (!hasLongs() || bigMax.compareTo(BigInteger.valueOf(max)) > 0)) {
+      return bigMax;
+    }
+    return max;
+  }
+
+  double getMean() {
+    Number total = getSum();
+    if (total instanceof Long) {
+      return (double) (Long) total / count;
+    }
+    return new BigDecimal((BigInteger) total).divide(BigDecimal.valueOf(count), MathContext.DECIMAL64).doubleValue();
+  }
+
+  /* adds result (the sum), count, min, max and mean to a response, min, max and mean only if there are numbers */
+  JSONObject putInto(JSONObject res) {
+    res.put("result", getSum());
+    res.put("count", count);
+    if (count > 0) {
+      res.put("min", getMin());
+      res.put("max", getMax());
+      res.put("mean", getMean());
+    }
+    return res;
+  }
+}
@@ -0,0 +1,316 @@
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+
+/**
+ * A declarative description of the fields of a JSON request object. It is
+ * compiled once into a table from field name to slot and type, then
+ * requests are validated while they are read from the JSONTokener: each
+ * value is checked against the type of its field and stored in its slot,
+ * no JSONObject or Map of the request is built. Checking a field is a
+ * table lookup and a type test.
+ *
+ * Example:
+ *   RequestSchema schema = RequestSchema.builder()
+ *     .field("type", RequestSchema.Type.STRING)
+ *     .field("nums", RequestSchema.Type.INT_ARRAY)
+ *     .build();
+ *   RequestSchema.Values req = schema.parse(new JSONTokener(text));
+ *   RequestSchema.ValidationError error = req.require("type", "nums");
+ */
+class RequestSchema {
+
+  /** Types a field can have, named like the classes the org.json parser produces. */
+  enum Type {
+    STRING("java.lang.String"),
+    INT("java.lang.Integer"),
+    BOOLEAN("java.lang.Boolean"),
+    INT_ARRAY("org.json.JSONArray"), // read into NumberStats
+    OBJECT("org.json.JSONObject");
+
+    final String typeName;
+
+    Type(String typeName) {
+      this.typeName = typeName;
+    }
+
+    /* does a value from JSONTokener.nextValue have this type */
+    boolean matches(Object value) {
+      switch (this) {
+        case STRING: return value instanceof String;
+        case INT: return value instanceof Integer;
+        case BOOLEAN: return value instanceof Boolean;
+        case INT_ARRAY: return value instanceof org.json.JSONArray;
+        default: return value instanceof JSONObject;
+      }
+    }
+  }
+
+  /** What is wrong with a request, and with which field. */
+  static class ValidationError {
+    enum Kind {
+      MISSING,
+      WRONG_TYPE,
+      WRONG_ELEMENT
+    }
+
+    final String field;
+    final Kind kind;
+    final String message;
+
+    ValidationError(String field, Kind kind, String message) {
+      this.field = field;
+      this.kind = kind;
+      this.message = message;
+    }
+
+    /* the error response of the protocol */
+    JSONObject toJson() {
+      JSONObject res = new JSONObject();
+      res.put("ok", false);
+      res.put("message", message);
+      return res;
+    }
+  }
+
+  static class Builder {
+    private final java.util.List<String> names = new java.util.ArrayList<>();
+    private final java.util.List<Type> types = new java.util.ArrayList<>();
+
+    Builder field(String name, Type type) {
+      names.add(name);
+      types.add(type);
+      return this;
+    }
+
+    RequestSchema build() {
+      return new RequestSchema(this);
+    }
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  private final String[] names;
+  private final Type[] types;
+  private final HashMap<String, Integer> slots = new HashMap<>();
+
+  private RequestSchema(Builder builder) {
+    names = builder.names.toArray(new String[0]);
+    types = builder.types.toArray(new Type[0]);
+    for (int i = 0; i < names.length; i++) {
+      slots.put(names[i], i);
+    }
+  }
+
+  /** The fields of one request, read with a schema. */
+  static class Values {
+    private final RequestSchema schema;
+    private final Object[] values;
+    private final ValidationError.Kind[] problems;
+
+    private Values(RequestSchema schema) {
+      this.schema = schema;
+      values = new Object[schema.names.length];
+      problems = new ValidationError.Kind[schema.names.length];
+    }
+
+    private int slot(String name) {
+      Integer slot = schema.slots.get(name);
+      if (slot == null) {
+        throw new IllegalArgumentException("Field " + name + " is not in the schema");
+      }
+      return slot;
+    }
+
+    /* the problem of the first of the fields that is missing or invalid, null if all are fine */
+    ValidationError require(String... fields) {
+      for (String name : fields) {
+        int slot = slot(name);
+        if (problems[slot] == ValidationError.Kind.WRONG_TYPE) {
+          return new ValidationError(name, ValidationError.Kind.WRONG_TYPE,
+              "Field " + name + " needs to be of type: " + schema.types[slot].typeName);
+        }
+        if (problems[slot] == ValidationError.Kind.WRONG_ELEMENT) {
+          return new ValidationError(name, ValidationError.Kind.WRONG_ELEMENT,
+              "Values in array need to be ints");
+        }
+        if (values[slot] == null) {
+          return new ValidationError(name, ValidationError.Kind.MISSING,
+              "Field " + name + " does not exist in request");
+        }
+      }
+      return null;
+    }
+
+    String getString(String name) {
+      return (String) values[slot(name)];
+    }
+
+    int getInt(String name) {
+      return (Integer) values[slot(name)];
+    }
+
+    boolean getBoolean(String name) {
+      return (Boolean) values[slot(name)];
+    }
+
+    NumberStats getStats(String name) {
+      return (NumberStats) values[slot(name)];
+    }
+
+    boolean has(String name) {
+      return values[slot(name)] != null;
+    }
+  }
+
+  /**
+   * Reads one JSON object from the tokener. Fields that are not in the
+   * schema are skipped, fields of the wrong type are remembered for
+   * require. Throws a JSONException if the text is not a JSON object.
+   */
+  Values parse(JSONTokener x) {
+    Values values = new Values(this);
+    if (x.nextClean() != '{') {
+      throw x.syntaxError("A JSON object text must begin with '{'");
+    }
+    if (x.nextClean() == '}') {
+      return values;
+    }
+    x.back();
+    while (true) {
+      // keys are read like JSONObject does, quoted or not
+      String key = x.nextValue().toString();
+      if (x.nextClean() != ':') {
+        throw x.syntaxError("Expected a ':' after a key");
+      }
+      Integer slot = slots.get(key);
+      if (slot == null) {
+        x.nextValue();
+      } else {
+        read(values, slot, x);
+      }
+      char c = x.nextClean();
+      if (c == '}') {
+        return values;
+      }
+      if (c != ',') {
+        throw x.syntaxError("Expected a ',' or '}'");
+      }
+      if (x.nextClean() == '}') {
+        return values;
+      }
+      x.back();
+    }
+  }
+
+  private void read(Values values, int slot, JSONTokener x) {
+    values.values[slot] = null;
+    values.problems[slot] = null;
+    char c = x.nextClean();
+    x.back();
+    if (types[slot] == Type.INT_ARRAY && c == '[') {
+      readInts(values, slot, x);
+    } else {
+      Object value = x.nextValue();
+      if (types[slot].matches(value)) {
+        values.values[slot] = value;
+      } else {
+        values.problems[slot] = ValidationError.Kind.WRONG_TYPE;
+      }
+    }
+  }
+
+  /*
+   * The elements of an array of integers, tokenized here one character at
+   * a time and added to a NumberStats, so no element is boxed or kept.
+   * Integers of any length are accepted, longer ones than a long become
+   * BigIntegers.
+   */
+  private void readInts(Values values, int slot, JSONTokener x) {
+    NumberStats stats = new NumberStats();
+    boolean allInts = true;
+    x.next(); // '['
+    char c = x.nextClean();
+    while (c != ']') {
+      x.back();
+      allInts &= readInt(stats, x);
+      c = x.nextClean();
+      if (c == ',') {
+        // a comma before the ']' is allowed, like in JSONArray
+        c = x.nextClean();
+      } else if (c != ']') {
+        throw x.syntaxError("Expected a ',' or ']'");
+      }
+    }
+    if (allInts) {
+      values.values[slot] = stats;
+    } else {
+      values.problems[slot] = ValidationError.Kind.WRONG_ELEMENT;
+    }
+  }
+
+  /* one element, false if it is not an integer */
+  private static boolean readInt(NumberStats stats, JSONTokener x) {
+    char c = x.nextClean();
+    boolean negative = (c == '-');
+    if (negative) {
+      c = x.next();
+    }
+    if (c < '0' || c > '9') {
+      // a string, object, ... is read like JSONArray would and dropped
+      x.back();
+      if (negative) {
+        skipToken(x);
+      } else {
+        x.nextValue();
+      }
+      return false;
+    }
+    // the magnitude as a negative long, which has room for Long.MIN_VALUE
+    long value = 0;
+    StringBuilder digits = null;
+    while (c >= '0' && c <= '9') {
+      int digit = c - '0';
+      if (digits == null && value < (Long.MIN_VALUE + digit) / 10) {
+        // value is negative here, its text starts with '-'
+        String text = Long.toString(value);
+        digits = new StringBuilder(negative ? text : text.substring(1));
+      }
+      if (digits != null) {
+        digits.append(c);
+      } else {
+        value = value * 10 - digit;
+      }
+      c = x.next();
+    }
+    x.back();
+    if (c != ',' && c != ']' && c > ' ') {
+      // 1.5, 1e3, 12abc
+      skipToken(x);
+      return false;
+    }
+    if (digits != null) {
+      stats.add(new BigInteger(digits.toString()));
+    } else if (negative) {
+      stats.add(value);
+    } else if (value == Long.MIN_VALUE) {
+      stats.add(BigInteger.valueOf(value).negate());
+    } else {
+      stats.add(-value);
+    }
+    return true;
+  }
+
+  /* skips the rest of an unquoted token */
+  private static void skipToken(JSONTokener x) {
+    char c = x.next();
+    while (c != ',' && c != ']' && c > ' ') {
+      c = x.next();
+    }
+    x.back();
+  }
+}
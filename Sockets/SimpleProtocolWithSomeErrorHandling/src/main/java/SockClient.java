@@ -14,7 +14,14 @@ import java.util.Scanner;
  * @modified-by David Clements <dacleme1@asu.edu> September 2020
  */
 class SockClient {
+  // numbers per chunk when many numbers are uploaded
+  static final int defaultChunk = 100000;
+
   public static void main (String args[]) {
+    if (args.length > 0) {
+      addmanyInChunks(Long.parseLong(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : defaultChunk);
+      return;
+    }
     Socket sock = null;
     String host = "localhost";
     
@@ -65,7 +72,7 @@ class SockClient {
         if (res.getString("type").equals("echo")) {
           System.out.println(res.getString("result"));
         } else {
-          System.out.println(res.getInt("result"));
+          System.out.println(res.get("result"));
         }
       } else {
         System.out.println(res.getString("message"));
@@ -80,4 +87,40 @@ class SockClient {
       e.printStackTrace();
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Uploads the numbers 1..count to addmany in chunks over one connection,
+   * every chunk but the last has "more" : true. The chunks are written as
+   * text directly, the numbers are never all in memory.
+   */
+  static void addmanyInChunks(long count, int chunk) {
+    try (Socket sock = new Socket("localhost", 8888)) {
+      ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+      DataInputStream in = new DataInputStream(sock.getInputStream());
+
+      long start = System.nanoTime();
+      long next = 1;
+      do {
+        StringBuilder json = new StringBuilder("{\"type\":\"addmany\",\"nums\":[");
+        for (int i = 0; i < chunk && next <= count; i++, next++) {
+          if (i > 0) {
+            json.append(',');
+          }
+          json.append(next);
+        }
+        json.append("],\"more\":").append(next <= count).append('}');
+        os.writeObject(json.toString());
+        // writeObject keeps every string for back references, reset drops them
+        os.reset();
+      } while (next <= count);
+      os.flush();
+
+      JSONObject res = new JSONObject(in.readUTF());
+      long millis = (System.nanoTime() - start) / 1000000;
+      System.out.println(res.toString());
+      System.out.println(count + " numbers in chunks of " + chunk + " in " + millis + " ms");
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -1,8 +1,11 @@
-import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.net.*;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A class to demonstrate a simple client-server connection using sockets.
@@ -12,52 +15,161 @@ import java.io.*;
  *
  */
 public class SockServer {
-  static Socket sock;
-  static DataOutputStream os;
-  static ObjectInputStream in;
+  static final int defaultPort = 8888;
+  static final int defaultThreads = 20;
 
-  public static void main (String args[]) {
+  // all fields a request can have, compiled once, each request type requires some of them
+  static final RequestSchema schema = RequestSchema.builder()
+    .field("type", RequestSchema.Type.STRING)
+    .field("data", RequestSchema.Type.STRING)
+    .field("num1", RequestSchema.Type.INT)
+    .field("num2", RequestSchema.Type.INT)
+    .field("nums", RequestSchema.Type.INT_ARRAY)
+    .field("more", RequestSchema.Type.BOOLEAN)
+    .build();
+
+  private final ServerSocket serv;
+  private final ExecutorService pool;
+
+  /**
+   * A server on port (0 picks a free one) that serves each connection on a
+   * thread of pool until the client closes it.
+   */
+  SockServer(int port, ExecutorService pool) throws IOException {
+    this.serv = new ServerSocket(port);
+    this.pool = pool;
+  }
+
+  int getPort() {
+    return serv.getLocalPort();
+  }
+
+  /* accepts connections until close is called */
+  void serve() {
+    System.out.println("Server ready for connections");
+    while (!serv.isClosed()) {
+      try {
+        Socket sock = serv.accept(); // blocking wait
+        pool.execute(new Connection(sock));
+      } catch (IOException e) {
+        if (!serv.isClosed()) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
 
+  void close() throws IOException {
+    serv.close();
+    pool.shutdown();
+  }
+
+  /**
+   * Arguments: [threads|virtual], the size of the thread pool (default 20)
+   * or virtual for a virtual thread per connection (Java 21 or later).
+   */
+  public static void main (String args[]) {
     try {
+      ExecutorService pool;
+      if (args.length > 0 && args[0].equals("virtual")) {
+        pool = newVirtualThreadExecutor();
+      } else {
+        pool = Executors.newFixedThreadPool(args.length > 0 ? Integer.parseInt(args[0]) : defaultThreads);
+      }
       //open socket
-      ServerSocket serv = new ServerSocket(8888); // create server socket on port 8888
-      System.out.println("Server ready for connections");
+      new SockServer(defaultPort, pool).serve(); // create server socket on port 8888
+    } catch(Exception e) {e.printStackTrace();}
+  }
 
-      while (true){
-        System.out.println("Server waiting for a connection");
-        sock = serv.accept(); // blocking wait
+  /*
+   * Looked up by reflection, so the server still compiles and runs with
+   * Java versions before 21.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("virtual threads need Java 21 or later");
+    }
+  }
+
+  /**
+   * One client: its socket and streams belong to this object, so clients
+   * served at the same time do not share anything. Requests are answered
+   * one after the other until the client closes the connection.
+   */
+  static class Connection implements Runnable {
+    private final Socket sock;
+    private int requests;
+
+    Connection(Socket sock) {
+      this.sock = sock;
+    }
 
+    public void run() {
+      try {
         // setup the object reading channel
-        in = new ObjectInputStream(sock.getInputStream());
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(sock.getInputStream()));
 
         // get output channel
-        OutputStream out = sock.getOutputStream();
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
 
-        // create an object output writer (Java only)
-        os = new DataOutputStream(out);
+        while (true) {
+          String s;
+          try {
+            s = (String) in.readObject();
+          } catch (EOFException e) {
+            break; // the client closed the connection
+          }
+          overandout(os, handle(s, in));
+          requests++;
+        }
+        System.out.println("Connection closed after " + requests + " requests");
+      } catch(Exception e) {
+        e.printStackTrace();
+      } finally {
+        try {
+          sock.close();
+        } catch(IOException e) {e.printStackTrace();}
+      }
+    }
+  }
 
-        String s = (String) in.readObject();
-        JSONObject req = new JSONObject(s);
+  static JSONObject handle(String s) {
+    return handle(s, null);
+  }
 
-        JSONObject res = testField(req, "type", "java.lang.String");
-        if (!res.getBoolean("ok")) {
-          overandout(res);
-          continue;
-        }
+  /**
+   * Validates the request while it is parsed and answers it. An addmany
+   * with "more" reads its next chunks from chunks, if it is given.
+   */
+  static JSONObject handle(String s, ObjectInputStream chunks) {
+    RequestSchema.Values req;
+    try {
+      req = schema.parse(new JSONTokener(s));
+    } catch (JSONException e) {
+      JSONObject res = new JSONObject();
+      res.put("ok", false);
+      res.put("message", "Request is not a JSON object: " + e.getMessage());
+      return res;
+    }
 
-        // check which request it is (could also be a switch statement)
-        if (req.getString("type").equals("echo")) {
-          res = echo(req);
-        } else if (req.getString("type").equals("add")) {
-          res = add(req);
-        } else if (req.getString("type").equals("addmany")) {
-          res = addmany(req);
-        } else {
-          res = wrongType(req);
-        }
-        overandout(res);
-      }
-    } catch(Exception e) {e.printStackTrace();}
+    RequestSchema.ValidationError error = req.require("type");
+    if (error != null) {
+      return error.toJson();
+    }
+
+    // check which request it is (could also be a switch statement)
+    if (req.getString("type").equals("echo")) {
+      return echo(req);
+    } else if (req.getString("type").equals("add")) {
+      return add(req);
+    } else if (req.getString("type").equals("addmany")) {
+      return addmany(req, chunks);
+    } else {
+      return wrongType(req);
+    }
   }
 
   static JSONObject testField(JSONObject req, String key, String type){
@@ -69,9 +181,8 @@ public class SockServer {
       res.put("message", "Field " + key + " does not exist in request");
       return res;
     }
-  System.out.println(req.get(key).getClass().getName());
     // field does not have correct type
-    if (!req.get(key).getClass().getName().equals(type)){
+    if (!typeNamed(type).matches(req.get(key))){
       res.put("message", "Field " + key + " needs to be of type: " + type);
       res.put("ok", false);
       return res.put("ok", false);
@@ -80,25 +191,45 @@ public class SockServer {
     }
   }
 
-  static JSONObject echo(JSONObject req){
-    JSONObject res = testField(req, "data", "java.lang.String");
-
-    if (res.getBoolean("ok")) {
-      res.put("type", "echo");
-      res.put("result", "Here is your echo: " + req.getString("data"));
+  private static RequestSchema.Type typeNamed(String type) {
+    for (RequestSchema.Type t : RequestSchema.Type.values()) {
+      if (t.typeName.equals(type)) {
+        return t;
+      }
     }
-    return res;
+    throw new IllegalArgumentException("Unknown type " + type);
+  }
+
+  // the requests can also be given as JSONObject, they are read with the schema
+  static JSONObject echo(JSONObject req){
+    return echo(schema.parse(new JSONTokener(req.toString())));
   }
 
   static JSONObject add(JSONObject req){
-    JSONObject res1 = testField(req, "num1", "java.lang.Integer");
-    if (!res1.getBoolean("ok")) {
-      return res1;
+    return add(schema.parse(new JSONTokener(req.toString())));
+  }
+
+  static JSONObject addmany(JSONObject req){
+    return addmany(schema.parse(new JSONTokener(req.toString())), null);
+  }
+
+  static JSONObject echo(RequestSchema.Values req){
+    RequestSchema.ValidationError error = req.require("data");
+    if (error != null) {
+      return error.toJson();
     }
 
-    JSONObject res2 = testField(req, "num2", "java.lang.Integer");
-    if (!res2.getBoolean("ok")) {
-      return res2;
+    JSONObject res = new JSONObject();
+    res.put("ok", true);
+    res.put("type", "echo");
+    res.put("result", "Here is your echo: " + req.getString("data"));
+    return res;
+  }
+
+  static JSONObject add(RequestSchema.Values req){
+    RequestSchema.ValidationError error = req.require("num1", "num2");
+    if (error != null) {
+      return error.toJson();
     }
 
     JSONObject res = new JSONObject();
@@ -108,47 +239,57 @@ public class SockServer {
     return res;
   }
 
-  static JSONObject addmany(JSONObject req){
-    JSONObject res = testField(req, "nums", "org.json.JSONArray");
-    if (!res.getBoolean("ok")) {
-      return res;
-    }
-
-    int result = 0;
-    JSONArray array = req.getJSONArray("nums");
-    for (int i = 0; i < array.length(); i ++){
-      try{
-      result += array.getInt(i);
-      } catch (org.json.JSONException e){
+  /**
+   * Adds the numbers of nums, which can be uploaded in chunks: while a
+   * request has "more" : true the next chunk ({"nums" : [...], "more" : ...})
+   * is read from the same connection and only the last one is answered.
+   * The numbers are never kept, each chunk only adds to the stats.
+   */
+  static JSONObject addmany(RequestSchema.Values req, ObjectInputStream chunks){
+    NumberStats stats = new NumberStats();
+    RequestSchema.ValidationError error = null;
+    while (true) {
+      // also tells if a value in the array is not an int
+      RequestSchema.ValidationError chunkError = req.require("nums");
+      if (chunkError != null) {
+        // the rest of the upload is still read, the first error is answered
+        error = (error == null) ? chunkError : error;
+      } else {
+        stats.merge(req.getStats("nums"));
+      }
+      if (chunks == null || !req.has("more") || !req.getBoolean("more")) {
+        break;
+      }
+      try {
+        req = schema.parse(new JSONTokener((String) chunks.readObject()));
+      } catch (Exception e) {
+        JSONObject res = new JSONObject();
         res.put("ok", false);
-        res.put("message", "Values in array need to be ints");
+        res.put("message", "Could not read the next chunk: " + e.getMessage());
         return res;
       }
     }
+    if (error != null) {
+      return error.toJson();
+    }
 
+    JSONObject res = new JSONObject();
     res.put("ok", true);
     res.put("type", "addmany");
-    res.put("result", result);
-    return res;
+    // result is the sum
+    return stats.putInto(res);
   }
 
-  static JSONObject wrongType(JSONObject req){
+  static JSONObject wrongType(RequestSchema.Values req){
     JSONObject res = new JSONObject();
     res.put("ok", false);
     res.put("message", "Type " + req.getString("type") + " not supported.");
     return res;
   }
 
-  static void overandout(JSONObject res) {
-    try {
-      os.writeUTF(res.toString());
-      // make sure it wrote and doesn't get cached in a buffer
-      os.flush();
-
-      os.close();
-      in.close();
-      sock.close();
-    } catch(Exception e) {e.printStackTrace();}
-
+  static void overandout(DataOutputStream os, JSONObject res) throws IOException {
+    os.writeUTF(res.toString());
+    // make sure it wrote and doesn't get cached in a buffer
+    os.flush();
   }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Many clients talk to one server at the same time, each over one long
+ * lived connection. Every request carries values unique to its client, so
+ * an answer that went to the wrong connection or mixed two requests fails
+ * the test.
+ */
+public class ConcurrentClientsTest {
+    static final int clients = 32;
+    static final int requestsPerClient = 300;
+
+    private SockServer server;
+    private Thread serverThread;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new SockServer(0, Executors.newFixedThreadPool(clients));
+        serverThread = new Thread(server::serve);
+        serverThread.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+        serverThread.join();
+    }
+
+    /* one connection, requests are answered in order */
+    static class Client implements Closeable {
+        private final Socket sock;
+        private final ObjectOutputStream os;
+        private final DataInputStream in;
+
+        Client(int port) throws IOException {
+            sock = new Socket("localhost", port);
+            os = new ObjectOutputStream(sock.getOutputStream());
+            in = new DataInputStream(sock.getInputStream());
+        }
+
+        void send(JSONObject req) throws IOException {
+            os.writeObject(req.toString());
+            os.flush();
+        }
+
+        JSONObject request(JSONObject req) throws IOException {
+            send(req);
+            return new JSONObject(in.readUTF());
+        }
+
+        public void close() throws IOException {
+            sock.close();
+        }
+    }
+
+    /* runs body for every client at the same time, fails with the first error of any client */
+    private void runClients(ClientBody body) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            results.add(pool.submit(() -> {
+                start.await();
+                try (Client connection = new Client(server.getPort())) {
+                    body.run(client, connection);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(); // rethrows assertion errors of the clients
+        }
+        pool.shutdown();
+    }
+
+    interface ClientBody {
+        void run(int client, Client connection) throws Exception;
+    }
+
+    @Test(timeout = 120000)
+    public void echoAndAddWithoutCrossTalk() throws Exception {
+        runClients((client, connection) -> {
+            for (int i = 0; i < requestsPerClient; i++) {
+                JSONObject req = new JSONObject();
+                if (i % 2 == 0) {
+                    String data = "client " + client + " request " + i;
+                    req.put("type", "echo");
+                    req.put("data", data);
+                    JSONObject res = connection.request(req);
+                    assertTrue(res.getBoolean("ok"));
+                    assertEquals("Here is your echo: " + data, res.getString("result"));
+                } else {
+                    req.put("type", "add");
+                    req.put("num1", client * 100000);
+                    req.put("num2", i);
+                    JSONObject res = connection.request(req);
+                    assertTrue(res.getBoolean("ok"));
+                    assertEquals(client * 100000 + i, res.getInt("result"));
+                }
+            }
+        });
+    }
+
+    @Test(timeout = 120000)
+    public void errorsStayWithTheirConnection() throws Exception {
+        runClients((client, connection) -> {
+            for (int i = 0; i < requestsPerClient; i++) {
+                JSONObject req = new JSONObject();
+                req.put("type", "echo");
+                if (client % 2 == 0) {
+                    req.put("data", client * 1000 + i); // wrong type
+                    JSONObject res = connection.request(req);
+                    assertFalse(res.getBoolean("ok"));
+                    assertEquals("Field data needs to be of type: java.lang.String", res.getString("message"));
+                } else {
+                    req.put("data", "ok " + client + " " + i);
+                    JSONObject res = connection.request(req);
+                    assertTrue(res.getBoolean("ok"));
+                    assertEquals("Here is your echo: ok " + client + " " + i, res.getString("result"));
+                }
+            }
+        });
+    }
+
+    @Test(timeout = 120000)
+    public void chunkedAddmanyPerConnection() throws Exception {
+        runClients((client, connection) -> {
+            // every client sums its own numbers client * 1000 + 0..999 in chunks of 100
+            long expected = 0;
+            for (int chunk = 0; chunk < 10; chunk++) {
+                JSONArray nums = new JSONArray();
+                for (int i = 0; i < 100; i++) {
+                    long num = client * 1000L + chunk * 100 + i;
+                    nums.put(num);
+                    expected += num;
+                }
+                JSONObject req = new JSONObject();
+                if (chunk == 0) {
+                    req.put("type", "addmany");
+                }
+                req.put("nums", nums);
+                req.put("more", chunk < 9);
+                if (chunk < 9) {
+                    connection.send(req);
+                } else {
+                    JSONObject res = connection.request(req);
+                    assertTrue(res.getBoolean("ok"));
+                    assertEquals(expected, res.getLong("result"));
+                    assertEquals(1000, res.getLong("count"));
+                    assertEquals(client * 1000L, res.getLong("min"));
+                    assertEquals(client * 1000L + 999, res.getLong("max"));
+                }
+            }
+        });
+    }
+}